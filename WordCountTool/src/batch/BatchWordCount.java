@@ -0,0 +1,285 @@
+/**
+ * Command line application that counts the files of directory trees without any user interface
+ *
+ * Usage: BatchWordCount [--format csv|json] [--rules en|fr] [--threads n] [--cache file] [--cache-size n]
+ *                       [--metrics file] [--metrics-period s] [--watch] path...
+ *
+ * Features:
+ * - Walks the given directories and counts every regular file on a bounded pool of threads
+ * - Counts gzip and zip files as the text they hold, decompressed on the fly (see ReadWriteFile)
+ * - Prints the number of characters, syllables, words and sentences of each file
+ *   as CSV rows or JSON lines, followed by the totals of all files
+ * - Reports the throughput in files/s and MB/s on the error output
+ * - Optionally keeps the counts in a cache file, so that unchanged files are not read again
+ * - Counts with the English rules of Document, or with the French rules
+ * - Optionally writes the metrics of the run as JSON lines every period, and publishes them through JMX
+ * - Optionally keeps watching the directories, and counts the files again as they change (see DirectoryWatcher)
+ */
+package batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import document.CountCache;
+import document.CountMetrics;
+import document.CountingRules;
+import document.Json;
+import document.ReadWriteFile;
+import document.TextCounter;
+
+/**
+ * @author Mickael Grivolat
+ */
+
+// Command line application that counts the files of directory trees
+public class BatchWordCount {
+
+	static final String TOTAL = "<total>";  // path of the row that holds the totals
+
+	private final boolean json;
+	private final CountingRules rules;
+	private final PrintStream out;
+	private final ThreadPoolExecutor workers;
+	private CountCache cache;
+	private final AtomicLong numFiles = new AtomicLong(), numErrors = new AtomicLong(), numBytes = new AtomicLong();
+	private final AtomicLong numCharacters = new AtomicLong(), numSyllables = new AtomicLong();
+	private final AtomicLong numWords = new AtomicLong(), numSentences = new AtomicLong();
+
+	/* Creates a batch that prints its results to out, with the given number of worker threads */
+	public BatchWordCount(boolean json, int threads, PrintStream out) {
+		this(json, CountingRules.ENGLISH, threads, out);
+	}
+
+	/* Creates a batch that counts with the given rules */
+	public BatchWordCount(boolean json, CountingRules rules, int threads, PrintStream out) {
+		this.json = json;
+		this.rules = rules;
+		this.out = out;
+		// the queue is bounded: the directory walk waits for the workers instead of piling up files
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/* Takes the counts of unchanged files from the cache, and stores the counts of the others in it */
+	public void setCache(CountCache cache) {
+		this.cache = cache;
+	}
+	
+	/* Counts every regular file under the given path, which can also be a single file */
+	public void submit(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					workers.execute(() -> count(file.toFile(), attrs.size()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				error(file.toString(), e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/* Waits for the submitted files to be counted and prints the totals */
+	public void finish() throws InterruptedException, IOException {
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		print(TOTAL, numBytes.get(), numCharacters.get(), numSyllables.get(), numWords.get(), numSentences.get());
+		out.flush();
+		if (cache != null) {
+			cache.save();
+		}
+	}
+
+	// get methods
+	public long getNumFiles() {
+		return numFiles.get();
+	}
+
+	public long getNumErrors() {
+		return numErrors.get();
+	}
+
+	public long getNumBytes() {
+		return numBytes.get();
+	}
+
+	// Counts a file without storing its content, or takes its counts from the cache, and prints its row
+	private void count(File f, long size) {
+		try {
+			if (cache != null) {
+				CountCache.Entry entry = cache.count(f);
+				add(f.getPath(), size, entry.getNumCharacters(), entry.getNumSyllables(),
+						entry.getNumWords(), entry.getNumSentences());
+			} else {
+				TextCounter counter = ReadWriteFile.count(f, rules);
+				add(f.getPath(), size, counter.getNumCharacters(), counter.getNumSyllables(),
+						counter.getNumWords(), counter.getNumSentences());
+			}
+		} catch (Exception e) {
+			// a file that cannot be counted, whatever the cause, does not stop the batch
+			error(f.getPath(), e);
+		}
+	}
+	
+	// Adds the counts of a file to the totals and prints its row
+	private void add(String path, long size, long characters, long syllables, long words, long sentences) {
+		numFiles.incrementAndGet();
+		numBytes.addAndGet(size);
+		numCharacters.addAndGet(characters);
+		numSyllables.addAndGet(syllables);
+		numWords.addAndGet(words);
+		numSentences.addAndGet(sentences);
+		print(path, size, characters, syllables, words, sentences);
+	}
+	
+	private void error(String path, Exception e) {
+		numErrors.incrementAndGet();
+		CountMetrics.ERRORS.increment();
+		System.err.println("File cannot be counted: " + path + " (" + e.getMessage() + ")");
+	}
+
+	private void print(String path, long bytes, long characters, long syllables, long words, long sentences) {
+		print(out, json, path, bytes, characters, syllables, words, sentences);
+	}
+
+	// Prints a row, the rows of the workers are not interleaved
+	static void print(PrintStream out, boolean json, String path, long bytes, long characters, long syllables,
+			long words, long sentences) {
+		String row;
+		if (json) {
+			row = "{\"path\":" + Json.quote(path) + ",\"bytes\":" + bytes + ",\"characters\":" + characters
+					+ ",\"syllables\":" + syllables + ",\"words\":" + words + ",\"sentences\":" + sentences + "}";
+		} else {
+			row = csvString(path) + "," + bytes + "," + characters + "," + syllables + "," + words + "," + sentences;
+		}
+		synchronized (out) {
+			out.println(row);
+		}
+	}
+
+	private static String csvString(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+			return s;
+		}
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	// Prints the error, if any, and the usage, then exits
+	private static void usage(String error) {
+		if (error != null) {
+			System.err.println(error);
+		}
+		System.err.println("Usage: BatchWordCount [--format csv|json] [--rules en|fr] [--threads n] [--cache file] [--cache-size n]"
+				+ " [--metrics file] [--metrics-period s] [--watch] path...");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		boolean json = false;
+		CountingRules rules = CountingRules.ENGLISH;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int cacheSize = 1000000;
+		File cacheFile = null;
+		File metricsFile = null;
+		long metricsPeriod = 10;
+		boolean watch = false;
+		List<Path> roots = new ArrayList<Path>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--format") && i + 1 < args.length) {
+				json = args[++i].equalsIgnoreCase("json");
+			} else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rules = CountingRules.forName(args[++i]);
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--cache") && i + 1 < args.length) {
+				cacheFile = new File(args[++i]);
+			} else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+				cacheSize = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--metrics") && i + 1 < args.length) {
+				metricsFile = new File(args[++i]);
+			} else if (args[i].equals("--metrics-period") && i + 1 < args.length) {
+				metricsPeriod = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--watch")) {
+				watch = true;
+			} else if (args[i].startsWith("--")) {
+				// an unknown option, or an option without its value, is not taken for a path
+				usage("Unknown option or missing value: " + args[i]);
+			} else {
+				roots.add(Paths.get(args[i]));
+			}
+		}
+		if (roots.isEmpty()) {
+			usage(null);
+		}
+
+		PrintStream metrics = null;
+		if (metricsFile != null) {
+			metrics = new PrintStream(new FileOutputStream(metricsFile), true, "UTF-8");
+			CountMetrics.getInstance().setEnabled(true);
+			CountMetrics.register();
+			CountMetrics.startDump(metrics, metricsPeriod * 1000);
+		}
+
+		if (watch) {
+			// the cache holds no counter state to go on from, the files are counted when the watch starts
+			if (!json) {
+				System.out.println("path,bytes,characters,syllables,words,sentences");
+			}
+			DirectoryWatcher watcher = new DirectoryWatcher(json, rules, threads, System.out);
+			for (Path root : roots) {
+				watcher.add(root);
+			}
+			System.err.printf("watching %d files (%d errors)%n", watcher.getNumFiles(), watcher.getNumErrors());
+			watcher.run();
+			return;
+		}
+
+		long start = System.nanoTime();
+		BatchWordCount batch = new BatchWordCount(json, rules, threads, System.out);
+		CountCache cache = cacheFile != null ? new CountCache(cacheFile, cacheSize, rules) : null;
+		if (cache != null && cache.isDiscarded()) {
+			System.err.println("Cache not loaded, it is made again: " + cacheFile);
+		}
+		batch.setCache(cache);
+		if (!json) {
+			System.out.println("path,bytes,characters,syllables,words,sentences");
+		}
+		for (Path root : roots) {
+			batch.submit(root);
+		}
+		batch.finish();
+
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		double megabytes = batch.getNumBytes() / (1024.0 * 1024.0);
+		System.err.printf("%d files (%d errors), %.1f MB in %.2f s: %.1f files/s, %.1f MB/s%n",
+				batch.getNumFiles(), batch.getNumErrors(), megabytes, seconds,
+				batch.getNumFiles() / seconds, megabytes / seconds);
+		if (cache != null) {
+			System.err.printf("cache: %d unchanged, %d same content, %d counted%n",
+					cache.getHits(), cache.getHashHits(), cache.getMisses());
+		}
+		if (metrics != null) {
+			CountMetrics.stopDump();
+			metrics.close();
+		}
+		System.exit(batch.getNumErrors() == 0 ? 0 : 1);
+	}
+}
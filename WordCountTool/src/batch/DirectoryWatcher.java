@@ -0,0 +1,371 @@
+package batch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import document.CountMetrics;
+import document.CountingRules;
+import document.ReadWriteFile;
+import document.TextCounter;
+
+/**
+ * Keeps the counts of every file of directory trees up to date while the files change.
+ * Each directory is registered on a WatchService. The events are gathered until the
+ * trees are quiet for a moment, then only the files they name are counted again, on a
+ * pool of threads, and the totals are corrected by the difference. A file that only
+ * grew is not read again: the state of the counter at its former end is kept, and the
+ * bytes appended are counted from there, so that a word or a sentence continued by them
+ * is counted once. A file is taken as appended when its first and last FINGERPRINT bytes
+ * before its former end did not change.
+ * When the events overflow, the files are checked again by size and modification time.
+ * The rows of the files counted are printed as they are by BatchWordCount, a deleted
+ * file having a row of zeros, and the totals follow each batch of changes.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class DirectoryWatcher implements Closeable {
+
+	private static final int FINGERPRINT = 256;  // bytes at both ends of a file that must be unchanged to count only its tail
+	private static final long QUIET_MILLIS = 200;  // the events are gathered until none comes for this long
+	private static final long MAX_DELAY_MILLIS = 2000;  // ...or for this long at most, on trees that keep changing
+
+	private final boolean json;
+	private final CountingRules rules;
+	private final PrintStream out;
+	private final WatchService watcher;
+	private final ExecutorService workers;
+	private final List<Path> roots = new ArrayList<Path>();
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+	private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+	private final ConcurrentHashMap<Path, FileCount> files = new ConcurrentHashMap<Path, FileCount>();
+	private final LongAdder numFiles = new LongAdder(), numErrors = new LongAdder(), numBytes = new LongAdder();
+	private final LongAdder numCharacters = new LongAdder(), numSyllables = new LongAdder();
+	private final LongAdder numWords = new LongAdder(), numSentences = new LongAdder();
+
+	/* Creates a watcher that prints its results to out, with the given rules and number of worker threads */
+	public DirectoryWatcher(boolean json, CountingRules rules, int threads, PrintStream out) throws IOException {
+		this.json = json;
+		this.rules = rules;
+		this.out = out;
+		watcher = FileSystems.getDefault().newWatchService();
+		workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Word Count Watcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/* Watches every directory under the given path, counts its files and prints the totals */
+	public void add(Path root) throws IOException, InterruptedException {
+		Set<Path> changed = new LinkedHashSet<Path>();
+		roots.add(root);
+		register(root, changed);
+		update(changed);
+	}
+
+	/* Counts the files again as they change, until the watcher is closed or the thread interrupted */
+	public void run() throws IOException, InterruptedException {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<Path>();
+				WatchKey key = watcher.take();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+				do {
+					process(key, changed);
+				} while (System.nanoTime() < deadline
+						&& (key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null);
+				update(changed);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed by another thread
+		}
+	}
+
+	/* Stops watching the directories */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+		workers.shutdownNow();
+	}
+
+	// get methods
+	public long getNumFiles() {
+		return numFiles.sum();
+	}
+
+	public long getNumErrors() {
+		return numErrors.sum();
+	}
+
+	public long getNumBytes() {
+		return numBytes.sum();
+	}
+
+	// Registers the directories of a tree and adds its regular files to the changed files
+	private void register(Path root, Set<Path> changed) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!keys.containsKey(dir)) {
+					WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+					directories.put(key, dir);
+					keys.put(dir, key);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					changed.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				error(file.toString(), e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	// Adds the files named by the events of a directory to the changed files
+	private void process(WatchKey key, Set<Path> changed) throws IOException {
+		Path dir = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				// events were lost: every file is checked, the unchanged ones are not read
+				changed.addAll(files.keySet());
+				for (Path root : roots) {
+					register(root, changed);
+				}
+				continue;
+			}
+			if (dir == null) {
+				continue;
+			}
+			Path child = dir.resolve((Path) event.context());
+			if (event.kind() == ENTRY_DELETE && keys.containsKey(child)) {
+				// a directory moved away only sends an event to its parent
+				unregister(child);
+				for (Path file : files.keySet()) {
+					if (file.startsWith(child)) {
+						changed.add(file);
+					}
+				}
+			} else if (event.kind() == ENTRY_DELETE) {
+				changed.add(child);
+			} else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+				if (event.kind() == ENTRY_CREATE) {
+					try {
+						register(child, changed);
+					} catch (NoSuchFileException e) {
+						// already deleted
+					}
+				}
+			} else {
+				changed.add(child);
+			}
+		}
+		if (!key.reset()) {
+			unregister(directories.get(key));
+		}
+	}
+
+	// Stops watching a directory and the directories under it
+	private void unregister(Path dir) {
+		if (dir == null) {
+			return;
+		}
+		keys.entrySet().removeIf(entry -> {
+			if (entry.getKey().startsWith(dir)) {
+				entry.getValue().cancel();
+				directories.remove(entry.getValue());
+				return true;
+			}
+			return false;
+		});
+	}
+
+	// Counts the changed files on the workers, then prints the totals.
+	// A file that fails in an unexpected way is reported, the others are still watched.
+	private void update(Collection<Path> changed) throws InterruptedException {
+		List<Path> paths = new ArrayList<Path>(changed);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(paths.size());
+		for (Path file : paths) {
+			tasks.add(Executors.callable(() -> recount(file)));
+		}
+		List<Future<Object>> results = workers.invokeAll(tasks);
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				results.get(i).get();
+			} catch (ExecutionException e) {
+				error(paths.get(i).toString(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+			}
+		}
+		BatchWordCount.print(out, json, BatchWordCount.TOTAL, numBytes.sum(), numCharacters.sum(),
+				numSyllables.sum(), numWords.sum(), numSentences.sum());
+		out.flush();
+	}
+
+	// Counts a file again if it changed, replaces its counts in the totals and prints its row
+	private void recount(Path file) {
+		FileCount previous = files.get(file), current;
+		try {
+			current = count(file, previous);
+		} catch (IOException | RuntimeException e) {
+			// the state of the counter may be lost, the file is counted from its start next time
+			error(file.toString(), e);
+			current = null;
+		}
+		if (current == previous) {
+			return;
+		}
+		if (current != null) {
+			files.put(file, current);
+		} else {
+			files.remove(file);
+		}
+		add(previous, -1);
+		add(current, 1);
+		if (current != null) {
+			BatchWordCount.print(out, json, file.toString(), current.size, current.characters, current.syllables,
+					current.words, current.sentences);
+		} else if (previous != null) {
+			BatchWordCount.print(out, json, file.toString(), 0, 0, 0, 0, 0);
+		}
+	}
+
+	// Returns the counts of a file, the previous ones if it did not change, null if it is not a regular file any more
+	private FileCount count(Path file, FileCount previous) throws IOException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		if (!attrs.isRegularFile()) {
+			return null;
+		}
+		long modified = attrs.lastModifiedTime().toMillis();
+		if (previous != null && previous.size == attrs.size() && previous.modified == modified) {
+			return previous;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (ReadWriteFile.isCompressed(channel)) {
+				// the text of a compressed file is not where its bytes are, it is always counted again
+				return new FileCount(size, modified, 0, ReadWriteFile.count(file.toFile(), rules));
+			}
+			TextCounter counter;
+			long position;
+			if (previous != null && size > previous.size && fingerprint(channel, previous.size) == previous.fingerprint) {
+				// appended: the counter goes on from the former end of the file
+				counter = previous.counter;
+				position = previous.size;
+			} else {
+				counter = new TextCounter(rules);
+				position = 0;
+			}
+			ReadWriteFile.count(channel, position, size, counter);
+			CountMetrics.DOCUMENTS.increment();
+			return new FileCount(size, modified, fingerprint(channel, size), counter);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (Exception e) {
+			throw new IOException("File cannot be read: " + file, e);
+		}
+	}
+
+	// Returns the CRC32C of the first and last FINGERPRINT bytes of the file before the given end
+	private static long fingerprint(FileChannel channel, long end) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer bytes = ByteBuffer.allocate(FINGERPRINT);
+		read(channel, 0, Math.min(FINGERPRINT, end), bytes);
+		crc.update(bytes);
+		read(channel, Math.max(0, end - FINGERPRINT), end, bytes);
+		crc.update(bytes);
+		return crc.getValue();
+	}
+
+	// Reads the bytes of the file from start (inclusive) to end (exclusive) into the buffer, ready to be read
+	private static void read(FileChannel channel, long start, long end, ByteBuffer bytes) throws IOException {
+		bytes.clear().limit((int) (end - start));
+		while (bytes.hasRemaining() && channel.read(bytes, start + bytes.position()) >= 0) {
+		}
+		bytes.flip();
+	}
+
+	// Adds the counts of a file to the totals, or removes them if sign is -1
+	private void add(FileCount count, int sign) {
+		if (count != null) {
+			numFiles.add(sign);
+			numBytes.add(sign * count.size);
+			numCharacters.add(sign * count.characters);
+			numSyllables.add(sign * count.syllables);
+			numWords.add(sign * count.words);
+			numSentences.add(sign * count.sentences);
+		}
+	}
+
+	private void error(String path, Exception e) {
+		numErrors.increment();
+		CountMetrics.ERRORS.increment();
+		System.err.println("File cannot be counted: " + path + " (" + e.getMessage() + ")");
+	}
+
+	/* The counts of a file, with the state of the counter at its end to count what is appended to it */
+	private static final class FileCount {
+		final long size, modified, fingerprint;
+		final TextCounter counter;  // not finished
+		final long characters, syllables, words, sentences;
+
+		FileCount(long size, long modified, long fingerprint, TextCounter counter) {
+			this.size = size;
+			this.modified = modified;
+			this.fingerprint = fingerprint;
+			this.counter = counter;
+			TextCounter counts = counter.snapshot();
+			characters = counts.getNumCharacters();
+			syllables = counts.getNumSyllables();
+			words = counts.getNumWords();
+			sentences = counts.getNumSentences();
+		}
+	}
+}
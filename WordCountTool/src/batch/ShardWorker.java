@@ -0,0 +1,56 @@
+/**
+ * Worker process of ShardedCount, started by it in another JVM
+ *
+ * Usage: ShardWorker [threads]
+ *
+ * Reads its shard from the standard input: the name of the rules, the number of ranges, then the path,
+ * start and end of each range. Writes to the standard output, for each range in order, true followed by
+ * its PartialCount, or false followed by the message of the error that prevented counting it.
+ */
+package batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import document.CountingRules;
+import document.ParallelCounter;
+import document.PartialCount;
+
+/**
+ * @author Mickael Grivolat
+ */
+
+// Worker process that counts the ranges of files of a shard
+public class ShardWorker {
+
+	private ShardWorker() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		// nothing else is written to the standard output, it only holds the counts
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, 1 << 16));
+
+		CountingRules rules = CountingRules.forName(in.readUTF());
+		for (int n = in.readInt(); n > 0; n--) {
+			File f = new File(in.readUTF());
+			long start = in.readLong(), end = in.readLong();
+			try {
+				PartialCount count = ParallelCounter.count(f, start, end, pool, rules);
+				out.writeBoolean(true);
+				count.write(out);
+			} catch (IOException e) {
+				out.writeBoolean(false);
+				out.writeUTF(String.valueOf(e.getCause() != null ? e.getCause() : e.getMessage()));
+			}
+		}
+		out.flush();
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * Command line application that counts a corpus on several worker processes
+ *
+ * Usage: ShardedCount [--workers n] [--threads n] [--format csv|json] [--rules en|fr] path...
+ *
+ * Features:
+ * - Splits the bytes of the files of the given directory trees into one shard per worker, of the same size:
+ *   a shard can start or end inside a file, and a large file is spread over several shards
+ * - Starts each worker in its own JVM on this machine (see ShardWorker), with the class path or module path
+ *   of this one, and sends it the ranges of files of its shard
+ * - The workers count their ranges on --threads threads each and send back their counts as binary
+ *   PartialCount, which hold what is needed to join the words and sentences cut at the ends of the ranges
+ * - Joins the counts of the ranges of each file in order, which gives the counts of a single pass
+ * - Prints the counts of each file as CSV rows or JSON lines, followed by the totals, as BatchWordCount
+ * - Compressed files cannot be split: they are reported as errors, BatchWordCount counts them
+ */
+package batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import document.CountMetrics;
+import document.CountingRules;
+import document.ParallelCounter;
+import document.PartialCount;
+import document.ReadWriteFile;
+
+/**
+ * @author Mickael Grivolat
+ */
+
+// Command line application that counts a corpus on several worker processes
+public class ShardedCount {
+
+	private final CountingRules rules;
+	private final List<File> files = new ArrayList<File>();
+	private final List<Long> sizes = new ArrayList<Long>();
+	private long numBytes, numErrors;
+
+	/* Creates a corpus counted with the given rules */
+	public ShardedCount(CountingRules rules) {
+		this.rules = rules;
+	}
+
+	/* Adds every regular file under the given path, which can also be a single file, to the corpus */
+	public void add(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					try {
+						if (ReadWriteFile.isCompressed(file.toFile())) {
+							throw new IOException("Compressed files cannot be split");
+						}
+						files.add(file.toFile());
+						sizes.add(attrs.size());
+						numBytes += attrs.size();
+					} catch (IOException e) {
+						error(file.toString(), e.getMessage());
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				error(file.toString(), e.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	// get methods
+	public List<File> getFiles() {
+		return files;
+	}
+
+	public long getNumBytes() {
+		return numBytes;
+	}
+
+	public long getNumErrors() {
+		return numErrors;
+	}
+
+	/**
+	 * Counts the files of the corpus on the given number of worker processes, each with the given
+	 * number of threads, and returns the counts of each file in the order of getFiles(), null for
+	 * the files that could not be read.
+	 */
+	public PartialCount[] count(int workers, int threads) throws IOException, InterruptedException {
+		List<List<Range>> shards = split(workers);
+		List<Process> processes = new ArrayList<Process>();
+		List<Thread> readers = new ArrayList<Thread>();
+		IOException[] failures = new IOException[shards.size()];
+		for (int w = 0; w < shards.size(); w++) {
+			List<Range> shard = shards.get(w);
+			if (shard.isEmpty()) {
+				processes.add(null);
+				continue;
+			}
+			Process process = new ProcessBuilder(command(threads)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			processes.add(process);
+			int worker = w;
+			// the counts are read while the shard is written, neither pipe can fill up and block the worker
+			Thread reader = new Thread(() -> {
+				try {
+					read(process, shard);
+				} catch (IOException e) {
+					failures[worker] = e;
+				}
+			}, "Shard Reader " + w);
+			reader.start();
+			readers.add(reader);
+		}
+		for (int w = 0; w < shards.size(); w++) {
+			if (processes.get(w) != null) {
+				write(processes.get(w), shards.get(w));
+			}
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		for (int w = 0; w < shards.size(); w++) {
+			Process process = processes.get(w);
+			if (process != null && (process.waitFor() != 0 || failures[w] != null)) {
+				throw new IOException("Worker " + w + " failed with exit code " + process.exitValue(), failures[w]);
+			}
+		}
+
+		// the ranges of a file follow each other, across the shards in order
+		PartialCount[] counts = new PartialCount[files.size()];
+		boolean[] failed = new boolean[files.size()];
+		for (List<Range> shard : shards) {
+			for (Range range : shard) {
+				if (range.error != null) {
+					if (!failed[range.file]) {
+						error(files.get(range.file).getPath(), range.error);
+					}
+					failed[range.file] = true;
+				} else {
+					PartialCount count = counts[range.file];
+					counts[range.file] = count == null ? range.count : count.join(range.count);
+				}
+			}
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (failed[i]) {
+				counts[i] = null;
+			}
+		}
+		return counts;
+	}
+
+	/*
+	 * Splits the files into the given number of shards of about the same number of bytes, some of
+	 * which may be empty. If the rules have characters that are not ASCII, a range of a file starts
+	 * and ends between two UTF-8 characters.
+	 */
+	List<List<Range>> split(int numShards) throws IOException {
+		List<List<Range>> shards = new ArrayList<List<Range>>();
+		for (int k = 0; k < numShards; k++) {
+			shards.add(new ArrayList<Range>());
+		}
+		int k = 0;
+		long offset = 0;  // the number of bytes of the files before the current one
+		for (int i = 0; i < files.size(); i++) {
+			long size = sizes.get(i), position = 0;
+			while (true) {
+				// the end of shard k, relative to this file
+				long cut = Math.min(size, Math.max(numBytes * (k + 1) / numShards - offset, position));
+				if (cut > position && cut < size && !rules.isAscii()) {
+					cut = Math.min(size, ParallelCounter.characterStart(files.get(i), cut));
+				}
+				if (cut > position || size == 0) {
+					shards.get(k).add(new Range(i, position, cut));
+				}
+				position = cut;
+				if (position == size) {
+					break;
+				}
+				k++;
+			}
+			offset += size;
+		}
+		return shards;
+	}
+
+	// Sends its shard to a worker
+	private void write(Process process, List<Range> shard) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()))) {
+			out.writeUTF(rules.getName());
+			out.writeInt(shard.size());
+			for (Range range : shard) {
+				out.writeUTF(files.get(range.file).getAbsolutePath());
+				out.writeLong(range.start);
+				out.writeLong(range.end);
+			}
+		}
+	}
+
+	// Reads the counts of the ranges of its shard from a worker
+	private static void read(Process process, List<Range> shard) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(process.getInputStream()))) {
+			for (Range range : shard) {
+				if (in.readBoolean()) {
+					range.count = PartialCount.read(in);
+				} else {
+					range.error = in.readUTF();
+				}
+			}
+		}
+	}
+
+	// Returns the command that starts a worker JVM, with the modules, paths and properties of this one
+	private static List<String> command(int threads) {
+		List<String> command = new ArrayList<String>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			command.add("--add-modules=jdk.incubator.vector");
+		}
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith("wordcount.")) {
+				command.add("-D" + name + "=" + System.getProperty(name));
+			}
+		}
+		Module module = ShardWorker.class.getModule();
+		if (module.isNamed()) {
+			command.add("--module-path");
+			command.add(System.getProperty("jdk.module.path"));
+			command.add("--module");
+			command.add(module.getName() + "/" + ShardWorker.class.getName());
+		} else {
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(ShardWorker.class.getName());
+		}
+		command.add(Integer.toString(threads));
+		return command;
+	}
+
+	private void error(String path, String message) {
+		numErrors++;
+		CountMetrics.ERRORS.increment();
+		System.err.println("File cannot be counted: " + path + " (" + message + ")");
+	}
+
+	/* The bytes of a file from start (inclusive) to end (exclusive), and their counts once read from a worker */
+	static final class Range {
+		final int file;  // the index of the file in the corpus
+		final long start, end;
+		PartialCount count;
+		String error;
+
+		Range(int file, long start, long end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		boolean json = false;
+		CountingRules rules = CountingRules.ENGLISH;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int threads = 0;
+		List<Path> roots = new ArrayList<Path>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--format") && i + 1 < args.length) {
+				json = args[++i].equalsIgnoreCase("json");
+			} else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rules = CountingRules.forName(args[++i]);
+			} else if (args[i].equals("--workers") && i + 1 < args.length) {
+				workers = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else {
+				roots.add(Paths.get(args[i]));
+			}
+		}
+		if (roots.isEmpty() || workers < 1) {
+			System.err.println("Usage: ShardedCount [--workers n] [--threads n] [--format csv|json] [--rules en|fr] path...");
+			System.exit(2);
+		}
+		if (threads < 1) {
+			// the processors are shared by the workers
+			threads = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+		}
+
+		long start = System.nanoTime();
+		ShardedCount corpus = new ShardedCount(rules);
+		for (Path root : roots) {
+			corpus.add(root);
+		}
+		PartialCount[] counts = corpus.count(workers, threads);
+
+		PrintStream out = System.out;
+		if (!json) {
+			out.println("path,bytes,characters,syllables,words,sentences");
+		}
+		long numFiles = 0, bytes = 0, characters = 0, syllables = 0, words = 0, sentences = 0;
+		for (int i = 0; i < counts.length; i++) {
+			PartialCount count = counts[i];
+			if (count != null) {
+				long size = corpus.sizes.get(i);
+				BatchWordCount.print(out, json, corpus.files.get(i).getPath(), size, count.getNumCharacters(),
+						count.getNumSyllables(), count.getNumWords(), count.getNumSentences());
+				numFiles++;
+				bytes += size;
+				characters += count.getNumCharacters();
+				syllables += count.getNumSyllables();
+				words += count.getNumWords();
+				sentences += count.getNumSentences();
+			}
+		}
+		BatchWordCount.print(out, json, BatchWordCount.TOTAL, bytes, characters, syllables, words, sentences);
+		out.flush();
+
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		double megabytes = bytes / (1024.0 * 1024.0);
+		System.err.printf("%d files (%d errors), %.1f MB in %.2f s on %d workers of %d threads: %.1f MB/s%n",
+				numFiles, corpus.getNumErrors(), megabytes, seconds, workers, threads, megabytes / seconds);
+		System.exit(corpus.getNumErrors() == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,276 @@
+package document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32C;
+
+/**
+ * A cache of the counts of files, kept on disk between runs, so that the files that have
+ * not changed since they were last counted are not read again.
+ * A file is found by its path, size and modification time. When these do not match,
+ * for instance after a copy or a touch, the content of the file is hashed and the counts
+ * of a file with the same content are reused. Otherwise the file is counted from the windows
+ * mapped to hash it, so that it is read only once.
+ * The least recently used entries are evicted once the cache holds maxEntries files.
+ * A cache holds the counts of a single rule set, whose name is stored with it. A file that holds
+ * the counts of other rules, or that cannot be read, is discarded: the cache starts empty and
+ * the file is replaced when the cache is saved.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class CountCache {
+
+	private static final int MAGIC = 0x57434332;  // identifies the files written by save()
+	private static final int MAP_WINDOW = 1 << 24;  // number of bytes of a file hashed at a time
+
+	private final File store;
+	private final int maxEntries;
+	private final CountingRules rules;
+	private final LinkedHashMap<String, Entry> entries;  // by path, in the order of use
+	private final Map<Long, Entry> entriesByHash = new HashMap<Long, Entry>();
+	private long hits, hashHits, misses;
+	private boolean discarded;  // the file held no counts of these rules and is replaced by save()
+
+	/* Opens the cache stored in the given file, or an empty cache if the file does not exist or cannot be read */
+	public CountCache(File store, int maxEntries) {
+		this(store, maxEntries, CountingRules.ENGLISH);
+	}
+
+	/* Opens the cache of the counts made with the given rules stored in the given file */
+	public CountCache(File store, int maxEntries, CountingRules rules) {
+		this.store = store;
+		this.maxEntries = maxEntries;
+		this.rules = rules;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() <= CountCache.this.maxEntries) {
+					return false;
+				}
+				entriesByHash.remove(eldest.getValue().hash, eldest.getValue());
+				return true;
+			}
+		};
+		if (store.exists()) {
+			try {
+				load();
+			}
+			catch (IOException e) {
+				// a cache only saves time: its counts are made again and the file is overwritten
+				entries.clear();
+				entriesByHash.clear();
+				discarded = true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the counts of a file, from the cache if the file has not changed,
+	 * otherwise by counting it without storing its content.
+	 */
+	public Entry count(File f) throws IOException {
+		String path = f.getAbsoluteFile().toPath().normalize().toString();
+		BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		long size = attrs.size(), modified = attrs.lastModifiedTime().toMillis();
+
+		synchronized (this) {
+			Entry entry = entries.get(path);
+			if (entry != null && entry.size == size && entry.modified == modified) {
+				hits++;
+				CountMetrics.CACHE_HITS.increment();
+				return entry;
+			}
+		}
+		List<ByteBuffer> windows = new ArrayList<ByteBuffer>();
+		long hash = hash(f, size, windows);
+		synchronized (this) {
+			Entry same = entriesByHash.get(hash);
+			if (same != null && same.size == size) {
+				hashHits++;
+				CountMetrics.CACHE_HASH_HITS.increment();
+				return put(new Entry(path, size, modified, hash, same.numCharacters, same.numSyllables,
+						same.numWords, same.numSentences));
+			}
+		}
+		TextCounter counter;
+		try {
+			counter = ReadWriteFile.count(windows, rules);
+		}
+		catch (Exception e) {
+			CountMetrics.ERRORS.increment();
+			throw new IOException("File cannot be read: " + f, e);
+		}
+		synchronized (this) {
+			misses++;
+			CountMetrics.CACHE_MISSES.increment();
+			return put(new Entry(path, size, modified, hash, counter.getNumCharacters(),
+					counter.getNumSyllables(), counter.getNumWords(), counter.getNumSentences()));
+		}
+	}
+
+	/* Writes the cache to its file. The previous file is replaced once the new one is complete,
+	 * each save writes a temporary file of its own so that two runs can save the same cache */
+	public synchronized void save() throws IOException {
+		Path temp = Files.createTempFile(store.getAbsoluteFile().getParentFile().toPath(), store.getName() + ".", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeUTF(rules.getName());
+				out.writeInt(entries.size());
+				// least recently used first, so that loading restores the order of use
+				for (Entry e : entries.values()) {
+					out.writeUTF(e.path);
+					out.writeLong(e.size);
+					out.writeLong(e.modified);
+					out.writeLong(e.hash);
+					out.writeLong(e.numCharacters);
+					out.writeLong(e.numSyllables);
+					out.writeLong(e.numWords);
+					out.writeLong(e.numSentences);
+				}
+			}
+			Files.move(temp, store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (Exception e) {
+			Files.deleteIfExists(temp);
+			throw new IOException("Cache cannot be saved: " + store, e);
+		}
+	}
+
+	// get methods
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/* Number of files found unchanged by path, size and modification time */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/* Number of files found by the hash of their content */
+	public synchronized long getHashHits() {
+		return hashHits;
+	}
+
+	/* Number of files that had to be counted */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/* True if the file of the cache was written with other rules or could not be read, and was not loaded */
+	public boolean isDiscarded() {
+		return discarded;
+	}
+
+	private Entry put(Entry entry) {
+		Entry previous = entries.put(entry.path, entry);
+		if (previous != null) {
+			entriesByHash.remove(previous.hash, previous);
+		}
+		entriesByHash.put(entry.hash, entry);
+		return entry;
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store)))) {
+			int magic = in.readInt();
+			if (magic != MAGIC) {
+				throw new IOException("Not a count cache");
+			}
+			String name = in.readUTF();
+			if (!name.equals(rules.getName())) {
+				throw new IOException("Counts made with other rules: " + name);
+			}
+			for (int n = in.readInt(); n > 0; n--) {
+				put(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(),
+						in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+			}
+		}
+		catch (Exception e) {
+			throw new IOException("Cache cannot be read: " + store, e);
+		}
+	}
+
+	// Returns a 64 bits hash of the content of a file, made of its CRC32C and Adler32 checksums,
+	// and adds the windows mapped to read it to the list, from which the file can then be counted
+	private static long hash(File f, long size, List<ByteBuffer> windows) throws IOException {
+		CRC32C crc = new CRC32C();
+		Adler32 adler = new Adler32();
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			for (long position = 0; position < size; position += MAP_WINDOW) {
+				ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+				crc.update(window.duplicate());
+				adler.update(window.duplicate());
+				windows.add(window);
+			}
+		}
+		catch (Exception e) {
+			throw new IOException("File cannot be read: " + f, e);
+		}
+		return crc.getValue() << 32 | adler.getValue();
+	}
+
+	/** The counts of a file, with the path, size, modification time and hash it was counted with. */
+	public static final class Entry {
+		private final String path;
+		private final long size, modified, hash;
+		private final long numCharacters, numSyllables, numWords, numSentences;
+
+		Entry(String path, long size, long modified, long hash,
+				long numCharacters, long numSyllables, long numWords, long numSentences) {
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+			this.numCharacters = numCharacters;
+			this.numSyllables = numSyllables;
+			this.numWords = numWords;
+			this.numSentences = numSentences;
+		}
+
+		// get methods
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getNumCharacters() {
+			return numCharacters;
+		}
+
+		public long getNumSyllables() {
+			return numSyllables;
+		}
+
+		public long getNumWords() {
+			return numWords;
+		}
+
+		public long getNumSentences() {
+			return numSentences;
+		}
+	}
+}
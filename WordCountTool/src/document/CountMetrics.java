@@ -0,0 +1,314 @@
+package document;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The counters and timers of the application: what was read and counted, how long it took
+ * and how often the caches answered. They are published as a JMX MBean and can be written
+ * periodically as JSON lines.
+ * The metrics are disabled unless the system property wordcount.metrics is true or they are
+ * enabled by setEnabled. They are recorded per text, file or edit, never per character:
+ * when disabled, recording only reads a flag, and start() does not even read the clock.
+ *
+ *       long start = CountMetrics.start();
+ *       ...
+ *       CountMetrics.COUNT.stop(start);
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class CountMetrics implements CountMetricsMBean {
+
+	/** The name the MBean is registered with. */
+	public static final String OBJECT_NAME = "wordcount:type=CountMetrics";
+
+	private static volatile boolean enabled = Boolean.getBoolean("wordcount.metrics");
+
+	/** Reading files into a String, including their decoding. */
+	public static final Timer READ = new Timer("read");
+	/** Saving texts to files, including the rename of the temporary file. */
+	public static final Timer WRITE = new Timer("write");
+	/** Decoding bytes that are not UTF-8 before they are counted. */
+	public static final Timer DECODE = new Timer("decode");
+	/** Counting texts and files: the scan of the characters, words, syllables and sentences. */
+	public static final Timer COUNT = new Timer("count");
+	/** Updating the counts of the editor after an edit. */
+	public static final Timer EDIT = new Timer("edit");
+
+	public static final Counter DOCUMENTS = new Counter("documents");  // texts and files counted
+	public static final Counter CHARACTERS = new Counter("characters");
+	public static final Counter BYTES_READ = new Counter("bytesRead");
+	public static final Counter BYTES_WRITTEN = new Counter("bytesWritten");
+	public static final Counter ERRORS = new Counter("errors");
+	public static final Counter CACHE_HITS = new Counter("countCacheHits");
+	public static final Counter CACHE_HASH_HITS = new Counter("countCacheHashHits");
+	public static final Counter CACHE_MISSES = new Counter("countCacheMisses");
+
+	private static final Timer[] TIMERS = { READ, WRITE, DECODE, COUNT, EDIT };
+	private static final Counter[] COUNTERS = { DOCUMENTS, CHARACTERS, BYTES_READ, BYTES_WRITTEN, ERRORS,
+			CACHE_HITS, CACHE_HASH_HITS, CACHE_MISSES };
+	private static final CountMetrics INSTANCE = new CountMetrics();
+
+	private static volatile long resetTime = System.nanoTime();
+	private static ScheduledExecutorService dumper;
+	private static PrintStream dumpStream;
+
+	private CountMetrics() {
+	}
+
+	/** Returns the instance registered as an MBean. */
+	public static CountMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/** Returns the time to give to Timer.stop, 0 if the metrics are disabled. */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/** Registers the metrics on the platform MBean server, if they are not registered yet. */
+	public static synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(INSTANCE, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Metrics cannot be registered", e);
+		}
+	}
+
+	/**
+	 * Writes the metrics as a JSON line to the stream every period, on a daemon thread,
+	 * until stopDump is called. A previous dump is stopped.
+	 */
+	public static synchronized void startDump(PrintStream out, long periodMillis) {
+		stopDump();
+		dumpStream = out;
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Word Count Metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> dump(out), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops the periodic dump, after writing the metrics one last time. */
+	public static synchronized void stopDump() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dump(dumpStream);
+			dumper = null;
+			dumpStream = null;
+		}
+	}
+
+	private static void dump(PrintStream out) {
+		String json = INSTANCE.toJson();
+		synchronized (out) {
+			out.println(json);
+			out.flush();
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		CountMetrics.enabled = enabled;
+	}
+
+	@Override
+	public void reset() {
+		for (Timer timer : TIMERS) {
+			timer.reset();
+		}
+		for (Counter counter : COUNTERS) {
+			counter.reset();
+		}
+		resetTime = System.nanoTime();
+	}
+
+	// get methods
+	@Override
+	public long getDocuments() {
+		return DOCUMENTS.get();
+	}
+
+	@Override
+	public double getDocumentsPerSecond() {
+		return DOCUMENTS.get() / seconds();
+	}
+
+	@Override
+	public long getCharacters() {
+		return CHARACTERS.get();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return BYTES_READ.get();
+	}
+
+	@Override
+	public double getMegabytesPerSecond() {
+		return BYTES_READ.get() / (1024.0 * 1024.0) / seconds();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return BYTES_WRITTEN.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return ERRORS.get();
+	}
+
+	@Override
+	public long getReadMillis() {
+		return READ.getNanos() / 1000000;
+	}
+
+	@Override
+	public long getWriteMillis() {
+		return WRITE.getNanos() / 1000000;
+	}
+
+	@Override
+	public long getDecodeMillis() {
+		return DECODE.getNanos() / 1000000;
+	}
+
+	@Override
+	public long getCountMillis() {
+		return COUNT.getNanos() / 1000000;
+	}
+
+	@Override
+	public long getEdits() {
+		return EDIT.getCount();
+	}
+
+	@Override
+	public double getEditMaxMicros() {
+		return EDIT.getMaxNanos() / 1000.0;
+	}
+
+	/* The share of the files found in a count cache, by path or by content, NaN before the first file */
+	@Override
+	public double getCountCacheHitRate() {
+		long hits = CACHE_HITS.get() + CACHE_HASH_HITS.get(), total = hits + CACHE_MISSES.get();
+		return total == 0 ? Double.NaN : (double) hits / total;
+	}
+
+	@Override
+	public String toJson() {
+		StringBuilder sb = new StringBuilder("{\"time\":").append(System.currentTimeMillis());
+		sb.append(",\"enabled\":").append(enabled);
+		for (Counter counter : COUNTERS) {
+			Json.quote(sb.append(','), counter.name).append(':').append(counter.get());
+		}
+		sb.append(",\"documentsPerSecond\":").append(jsonNumber(getDocumentsPerSecond()));
+		sb.append(",\"megabytesPerSecond\":").append(jsonNumber(getMegabytesPerSecond()));
+		sb.append(",\"countCacheHitRate\":").append(jsonNumber(getCountCacheHitRate()));
+		for (Timer timer : TIMERS) {
+			Json.quote(sb.append(','), timer.name).append(":{\"count\":").append(timer.getCount())
+					.append(",\"totalMillis\":").append(jsonNumber(timer.getNanos() / 1e6))
+					.append(",\"maxMicros\":").append(jsonNumber(timer.getMaxNanos() / 1e3)).append('}');
+		}
+		return sb.append('}').toString();
+	}
+
+	// Returns the number of seconds since the metrics were reset
+	private static double seconds() {
+		return Math.max(System.nanoTime() - resetTime, 1) / 1e9;
+	}
+
+	// JSON has no NaN
+	private static String jsonNumber(double d) {
+		return Double.isNaN(d) || Double.isInfinite(d) ? "null" : String.format(Locale.ROOT, "%.3f", d);
+	}
+
+	/** A count that is only increased while the metrics are enabled. */
+	public static final class Counter {
+		private final String name;
+		private final LongAdder value = new LongAdder();
+
+		Counter(String name) {
+			this.name = name;
+		}
+
+		public void add(long n) {
+			if (enabled) {
+				value.add(n);
+			}
+		}
+
+		public void increment() {
+			add(1);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+
+		void reset() {
+			value.reset();
+		}
+	}
+
+	/** The number, total and maximum durations of an operation. */
+	public static final class Timer {
+		private final String name;
+		private final LongAdder count = new LongAdder(), nanos = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		Timer(String name) {
+			this.name = name;
+		}
+
+		/** Records the time elapsed since start, as returned by CountMetrics.start(). Nothing if it is 0. */
+		public void stop(long start) {
+			if (start != 0) {
+				long elapsed = System.nanoTime() - start;
+				count.increment();
+				nanos.add(elapsed);
+				max.accumulate(elapsed);
+			}
+		}
+
+		// get methods
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getNanos() {
+			return nanos.sum();
+		}
+
+		public long getMaxNanos() {
+			return max.get();
+		}
+
+		void reset() {
+			count.reset();
+			nanos.reset();
+			max.reset();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package document;
+
+/**
+ * The management interface of CountMetrics, as seen from a JMX console.
+ * Durations are in milliseconds, unless their name says otherwise.
+ *
+ * @author Mickael Grivolat
+ */
+
+public interface CountMetricsMBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/** Sets every counter and timer back to zero. */
+	void reset();
+
+	long getDocuments();
+
+	double getDocumentsPerSecond();
+
+	long getCharacters();
+
+	long getBytesRead();
+
+	double getMegabytesPerSecond();
+
+	long getBytesWritten();
+
+	long getErrors();
+
+	long getReadMillis();
+
+	long getWriteMillis();
+
+	long getDecodeMillis();
+
+	long getCountMillis();
+
+	long getEdits();
+
+	double getEditMaxMicros();
+
+	double getCountCacheHitRate();
+
+	/** Returns every metric as a JSON object. */
+	String toJson();
+}
@@ -0,0 +1,213 @@
+package document;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The rules that decide what the counters read as letters, vowels and end of sentence
+ * punctuation, compiled once into lookup tables indexed by character.
+ * A rule set is immutable and can be shared by any number of counters and threads: the
+ * counters only keep a reference to its tables, so choosing a rule set costs nothing per text.
+ *
+ * The rules are those described in {@link Document}, with the characters of the language:
+ *       A word is a contiguous sequence of letters.
+ *       Each contiguous sequence of one or more vowels is a syllable, except a lone silent
+ *       letter ("e" in English and French) at the end of a word that has other syllables.
+ *       A sentence ends with a contiguous sequence of end of sentence punctuation or with
+ *       the last word of the text, but a period that directly follows an abbreviation
+ *       (such as "M." or "Mme." in French) does not end a sentence.
+ * Letters are compared ignoring case. ENGLISH is the rule set of Document, FRENCH adds
+ * the accented letters, the ellipsis character and the usual French abbreviations.
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class CountingRules {
+
+	private static final String ASCII_LETTERS = "abcdefghijklmnopqrstuvwxyz";
+	static final int MAX_ABBREVIATION = 8;  // maximum number of letters of an abbreviation
+	// the vector kernel is used if the JVM runs with --add-modules jdk.incubator.vector, unless wordcount.vectors is false
+	private static final boolean VECTORS = !"false".equals(System.getProperty("wordcount.vectors"))
+			&& ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	/** The rules of Document: ASCII letters, the vowels aeiouy and the punctuation . ! ? */
+	public static final CountingRules ENGLISH = new CountingRules("en", ASCII_LETTERS, "aeiouy", "e", ".!?");
+
+	/** The French letters and vowels, with accents and ligatures, and the usual abbreviations. */
+	public static final CountingRules FRENCH = new CountingRules("fr",
+			ASCII_LETTERS + "\u00e0\u00e2\u00e4\u00e6\u00e7\u00e9\u00e8\u00ea\u00eb\u00ee\u00ef\u00f4\u00f6\u0153\u00f9\u00fb\u00fc\u00ff",
+			"aeiouy\u00e0\u00e2\u00e4\u00e6\u00e9\u00e8\u00ea\u00eb\u00ee\u00ef\u00f4\u00f6\u0153\u00f9\u00fb\u00fc\u00ff",
+			"e", ".!?\u2026",
+			"m", "mm", "mme", "mmes", "mlle", "mlles", "mgr", "dr", "pr", "st", "ste", "cf", "av", "bd");
+
+	private final String name;
+	final byte[] classes = new byte[Character.MAX_VALUE + 1];  // classes of the characters, as in TextCounter
+	final byte[] codes = new byte[Character.MAX_VALUE + 1];  // 6 bits code of each letter, the same in both cases
+	private final long[] abbreviations;  // keys of the abbreviations, sorted
+	private final boolean ascii;  // only ASCII characters are letters or punctuation
+	final VectorCounter vectors;  // the kernel that counts ASCII text a vector at a time, null if not available
+
+	/**
+	 * Compiles a rule set. The letters, vowels and silent letters are given in lowercase,
+	 * their uppercase forms are added. Silent letters are vowels that are not a syllable
+	 * when they end a word after a consonant. The abbreviations are the words, without
+	 * their period, after which a period does not end a sentence.
+	 */
+	public CountingRules(String name, String letters, String vowels, String silentLetters,
+			String terminators, String... abbreviations) {
+		this.name = name;
+		int numCodes = 0;
+		for (char c : letters.toCharArray()) {
+			char upper = Character.toUpperCase(c);
+			classes[c] |= TextCounter.LETTER;
+			classes[upper] |= TextCounter.LETTER;
+			if (codes[c] == 0) {
+				// the codes 1 to 62 identify a letter, 63 is shared by the letters beyond
+				codes[c] = (byte) Math.min(++numCodes, 63);
+				codes[upper] = codes[c];
+			}
+		}
+		for (char c : vowels.toCharArray()) {
+			checkLetter(c);
+			classes[c] |= TextCounter.VOWEL;
+			classes[Character.toUpperCase(c)] |= TextCounter.VOWEL;
+		}
+		for (char c : silentLetters.toCharArray()) {
+			checkLetter(c);
+			classes[c] |= TextCounter.LETTER_E;
+			classes[Character.toUpperCase(c)] |= TextCounter.LETTER_E;
+		}
+		for (char c : terminators.toCharArray()) {
+			if (classes[c] != TextCounter.SEPARATOR) {
+				throw new IllegalArgumentException("A letter cannot end a sentence: " + c);
+			}
+			classes[c] = TextCounter.TERMINATOR;
+		}
+		if (classes['.'] == TextCounter.TERMINATOR) {
+			classes['.'] |= TextCounter.PERIOD;
+		}
+
+		this.abbreviations = new long[abbreviations.length];
+		for (int i = 0; i < abbreviations.length; i++) {
+			long key = key(abbreviations[i]);
+			if (key == 0) {
+				throw new IllegalArgumentException("Not an abbreviation: " + abbreviations[i]);
+			}
+			this.abbreviations[i] = key;
+		}
+		Arrays.sort(this.abbreviations);
+
+		boolean ascii = true;
+		for (int c = 128; c < classes.length && ascii; c++) {
+			ascii = classes[c] == TextCounter.SEPARATOR;
+		}
+		this.ascii = ascii;
+		vectors = VECTORS ? VectorCounter.of(this) : null;
+	}
+
+	/** Returns the French rules for a French locale, the English rules otherwise. */
+	public static CountingRules forLocale(Locale locale) {
+		return locale.getLanguage().equals("fr") ? FRENCH : ENGLISH;
+	}
+
+	/** Returns the built-in rule set with the given name: en or fr. */
+	public static CountingRules forName(String name) {
+		if (name.equalsIgnoreCase(ENGLISH.name)) {
+			return ENGLISH;
+		}
+		if (name.equalsIgnoreCase(FRENCH.name)) {
+			return FRENCH;
+		}
+		throw new IllegalArgumentException("Unknown counting rules: " + name);
+	}
+
+	// get methods
+	public String getName() {
+		return name;
+	}
+
+	/* True if only ASCII characters are letters or punctuation, UTF-8 bytes can then be read without decoding */
+	public boolean isAscii() {
+		return ascii;
+	}
+
+	/** Returns true if the character is neither a letter nor an end of sentence punctuation. */
+	public boolean isSeparator(char c) {
+		return classes[c] == TextCounter.SEPARATOR;
+	}
+
+	/** Returns true if the character is a letter of the rules, in either case. */
+	public boolean isLetter(char c) {
+		return (classes[c] & TextCounter.LETTER) != 0;
+	}
+
+	/** Returns true if the word, without its period, is an abbreviation, ignoring case. */
+	public boolean isAbbreviation(CharSequence word) {
+		long key = key(word);
+		return key != 0 && isAbbreviation(key);
+	}
+
+	boolean hasAbbreviations() {
+		return abbreviations.length > 0;
+	}
+
+	/* Returns true if the key, as computed by key(), is the key of an abbreviation */
+	boolean isAbbreviation(long key) {
+		return abbreviations.length > 0 && Arrays.binarySearch(abbreviations, key) >= 0;
+	}
+
+	/**
+	 * Returns the number of syllables of a single word: each contiguous sequence of vowels
+	 * is a syllable, except a lone silent letter at the end of the word when the word has
+	 * other syllables. Any character other than a vowel is read as a consonant.
+	 */
+	public int countSyllables(CharSequence word) {
+		int sequences = 0;
+		boolean prevVowel = false, loneE = false;
+		for (int i = 0, len = word.length(); i < len; i++) {
+			int cls = classes[word.charAt(i)];
+			boolean vowel = (cls & TextCounter.VOWEL) != 0;
+			if (vowel && !prevVowel) {
+				sequences++;
+			}
+			loneE = (cls & TextCounter.LETTER_E) != 0 && !prevVowel && i > 0;
+			prevVowel = vowel;
+		}
+		return loneE && sequences > 1 ? sequences - 1 : sequences;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/*
+	 * Returns the key of a word: a 1 bit followed by the 6 bits code of each letter, which is
+	 * the value the counters build letter by letter. 0 if the word is not made of at most
+	 * MAX_ABBREVIATION letters that have their own code.
+	 */
+	long key(CharSequence word) {
+		return key(word, 0, word.length());
+	}
+
+	long key(CharSequence text, int start, int end) {
+		if (start == end || end - start > MAX_ABBREVIATION) {
+			return 0;
+		}
+		long key = 1;
+		for (int i = start; i < end; i++) {
+			int code = codes[text.charAt(i)];
+			if (code == 0 || code == 63) {
+				return 0;
+			}
+			key = key << 6 | code;
+		}
+		return key;
+	}
+
+	private void checkLetter(char c) {
+		if ((classes[c] & TextCounter.LETTER) == 0) {
+			throw new IllegalArgumentException("Not a letter: " + c);
+		}
+	}
+}
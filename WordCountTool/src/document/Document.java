@@ -1,32 +1,45 @@
 package document;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /** 
  * A class that represents a text document.
- * It does one pass through the document to count the number of syllables, words, 
- * and sentences and then stores those values.
+ * Each count is made the first time it is asked for, then stored: the number of characters
+ * is the length of the text, a pass through the document that skips the vowels counts
+ * the words and sentences, and the syllables, which cost the most, are only counted by
+ * a full pass when they are asked for. A document can be shared by several threads.
+ * The rules below are the English rules, other languages can be given as CountingRules.
  * 
  * @author Mickael Grivolat
  */
 
 public class Document {
 
+	// the counters of the threads, apart from those that TextCounter.forThread gives to the callers
+	private static final TextCounter.Pool COUNTERS = new TextCounter.Pool();
+
 	private String text;
 	private int numWords;  // The number of words in the document
 	private int numSentences;  // The number of sentences in the document
 	private int numSyllables;  // The number of syllables in the document
 	private int numCharacters; // The number of characters in the document
+	private final CountingRules rules;  // The letters, vowels and punctuation of the language
+	private volatile boolean wordsCounted, syllablesCounted;  // The counts above are stored
 	
 	/** Create a new document from the given text.*/
 	public Document(String text)
+	{
+		this(text, CountingRules.ENGLISH);
+	}
+	
+	/** Create a new document from the given text, counted with the rules of its language.*/
+	public Document(String text, CountingRules rules)
 	{
 		this.text = text;
-		processText();
+		this.rules = rules;
+		numCharacters = text.length();
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(text.length());
 	}
 	
 	/** Return the entire text of this document */
@@ -40,6 +53,7 @@ public class Document {
 	 * characters in the document, even if they don't end with a punctuation mark.
 	 */
 	public int getNumSentences() {
+		countWords();
 		return numSentences;
 	}
 	/**
@@ -50,6 +64,7 @@ public class Document {
 	 * any strings that combine numbers and letters.
 	 */
 	public int getNumWords() {
+		countWords();
 	    return numWords;
 	}
 	/**
@@ -61,6 +76,7 @@ public class Document {
 	 *       The letter y is considered a vowel.
 	 */
 	public int getNumSyllables() {
+		countSyllables();
         return numSyllables;
 	}
 	/**
@@ -70,87 +86,52 @@ public class Document {
         return numCharacters;
 	}
 	
-	/** Returns the tokens that match the regex pattern from the document text string.*/
-	private List<String> getTokens(String pattern)
-	{
-		ArrayList<String> tokens = new ArrayList<String>();
-		Pattern tokSplitter = Pattern.compile(pattern);
-		Matcher m = tokSplitter.matcher(text);
-		
-		while (m.find()) {
-			tokens.add(m.group());
-		}
-		
-		return tokens;
-	}
-	
-	/** 
-	 * Take a string that either contains only alphabetic characters, or only sentence-ending punctuation.
-	 * Return true if the string or only sentence-ending punctuation.
-	 * Return true if the string contains only alphabetic characters, and false if it contains end of sentence punctuation.
-	 */
-	private boolean isWord(String tok)
-	{
-		return !(tok.indexOf("!") >=0 || tok.indexOf(".") >=0 || tok.indexOf("?")>=0);
-	}
-	
-    /** Passes through the text one time to count the number of words, syllables 
-     *  and sentences, and set the member variables appropriately.
+    /** Passes through the text one time to count the number of words and sentences,
+     *  without following the vowels, the first time they are asked for.
      */
-	private void processText()
+	private void countWords()
 	{
-		// Call getTokens on the text to preserve separate strings that are either words or sentence-ending punctuation.
-		// Ignores everything that is not a word or a sentence-ending punctuation.
-		List<String> tokens = getTokens("[!?.]+|[a-zA-Z]+");
-		
-		int numWord = 0, numSyllab = 0, numSent = 0;
-		for(String str: tokens) {
-			if(isWord(str)) {
-				numSyllab += countSyllables(str);
-				numWord++;
-				if(str.equals(tokens.get(tokens.size()-1))) {
-					numSent++;
+		if (!wordsCounted) {
+			synchronized (this) {
+				if (!wordsCounted) {
+					TextCounter counter = count(COUNTERS.get(rules, false));
+					numWords = (int) counter.getNumWords();
+					numSentences = (int) counter.getNumSentences();
+					wordsCounted = true;
 				}
-			} else {
-				numSent++;
 			}
 		}
-		numWords = numWord;
-		numSyllables = numSyllab;
-		numSentences = numSent;
-		numCharacters = getText().length();
-	}	
-	
-	/** This is a helper function that returns the number of syllables
-	 * in a word. 
-	 * The number of syllables in the given word, according to this rule:
-	 *       Each contiguous sequence of one or more vowels is a syllable, 
-	 *       with the following exception: a lone "e" at the end of a word 
-	 *       is not considered a syllable unless the word has no other syllables. 
-	 *       The letter y is considered a vowel.
-	 */
-	private int countSyllables(String word)
+	}
+
+    /** Passes through the text one time to count the number of syllables, and the words
+     *  and sentences if they are not counted yet, the first time they are asked for.
+     */
+	private void countSyllables()
 	{
-			int numSyllables = 0;
-			boolean newSyllable = true;
-			String vowels = "aeiouy";
-			char[] cArray = word.toCharArray();
-			for (int i = 0; i < cArray.length; i++)
-			{
-			    if (i == cArray.length-1 && Character.toLowerCase(cArray[i]) == 'e' 
-			    		&& newSyllable && numSyllables > 0) {
-	                numSyllables--;
-	            }
-			    if (newSyllable && vowels.indexOf(Character.toLowerCase(cArray[i])) >= 0) {
-					newSyllable = false;
-					numSyllables++;
-				}
-				else if (vowels.indexOf(Character.toLowerCase(cArray[i])) < 0) {
-					newSyllable = true;
+		if (!syllablesCounted) {
+			synchronized (this) {
+				if (!syllablesCounted) {
+					TextCounter counter = count(COUNTERS.get(rules, true));
+					numSyllables = (int) counter.getNumSyllables();
+					if (!wordsCounted) {
+						numWords = (int) counter.getNumWords();
+						numSentences = (int) counter.getNumSentences();
+						wordsCounted = true;
+					}
+					syllablesCounted = true;
 				}
 			}
+		}
+	}
 
-			return numSyllables;
+	// The counter of the thread classifies the text character by character, no token is created.
+	private TextCounter count(TextCounter counter)
+	{
+		long start = CountMetrics.start();
+		counter.count(text);
+		counter.finish();
+		CountMetrics.COUNT.stop(start);
+		return counter;
 	}
 	
 	public static void main(String[] args) throws IOException {
@@ -0,0 +1,46 @@
+package document;
+
+/**
+ * Writes the strings of the JSON outputs of the application: the rows of the batch mode,
+ * the answers of the service and the metrics. A string is quoted and every character that
+ * JSON does not allow as is, a quote, a backslash or a control character, is escaped.
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class Json {
+
+	private Json() {
+	}
+
+	/** Returns the string as a JSON string, between quotes. */
+	public static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		quote(sb, s);
+		return sb.toString();
+	}
+
+	/** Appends the string as a JSON string, between quotes, to the builder. */
+	public static StringBuilder quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\b': sb.append("\\b"); break;
+			case '\f': sb.append("\\f"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"');
+	}
+}
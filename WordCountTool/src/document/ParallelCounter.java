@@ -0,0 +1,194 @@
+package document;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This utility class counts a large text or file on several threads.
+ * The input is split into chunks that are counted in parallel on a ForkJoinPool, then
+ * the partial counts are joined in order. Words, syllables and sentences that straddle
+ * two chunks are stitched back together by PartialCount, so the result is the same
+ * as a single pass through the text.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class ParallelCounter {
+
+	private static final int TEXT_CHUNK = 1 << 16;  // minimum number of characters counted by a task
+	private static final int FILE_CHUNK = 1 << 22;  // minimum number of bytes counted by a task
+	private static final int MAX_FILE_CHUNK = 1 << 30;  // maximum number of bytes mapped by a task
+
+	private ParallelCounter() {
+	}
+
+	/** Counts the given text on the common pool. */
+	public static PartialCount count(CharSequence text) {
+		return count(text, ForkJoinPool.commonPool());
+	}
+
+	/** Counts the given text on the given pool. */
+	public static PartialCount count(CharSequence text, ForkJoinPool pool) {
+		return count(text, pool, CountingRules.ENGLISH);
+	}
+
+	/** Counts the given text on the given pool with the given rules. */
+	public static PartialCount count(CharSequence text, ForkJoinPool pool, CountingRules rules) {
+		long start = CountMetrics.start();
+		int chunk = Math.max(TEXT_CHUNK, text.length() / (pool.getParallelism() * 4));
+		PartialCount count = pool.invoke(new TextTask(text, 0, text.length(), chunk, rules));
+		CountMetrics.COUNT.stop(start);
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(text.length());
+		return count;
+	}
+
+	/** Counts the text of a UTF-8 file on the common pool, without storing or decoding its content. */
+	public static PartialCount count(File f) throws IOException {
+		return count(f, ForkJoinPool.commonPool());
+	}
+
+	/** Counts the text of a UTF-8 file on the given pool, without storing or decoding its content. */
+	public static PartialCount count(File f, ForkJoinPool pool) throws IOException {
+		return count(f, pool, CountingRules.ENGLISH);
+	}
+
+	/**
+	 * Counts the text of a UTF-8 file on the given pool with the given rules, without storing
+	 * its content. The content is only decoded if the rules have characters that are not ASCII.
+	 */
+	public static PartialCount count(File f, ForkJoinPool pool, CountingRules rules) throws IOException {
+		return count(f, 0, Long.MAX_VALUE, pool, rules);
+	}
+
+	/**
+	 * Counts the bytes of a UTF-8 file from (inclusive) to (exclusive) the given positions on the given pool,
+	 * the end being cut to the size of the file. The counts of consecutive ranges can be joined: if the
+	 * rules have characters that are not ASCII, the ranges must start and end between two
+	 * characters, see characterStart.
+	 */
+	public static PartialCount count(File f, long from, long to, ForkJoinPool pool, CountingRules rules)
+			throws IOException {
+		long start = CountMetrics.start();
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long end = Math.min(to, channel.size());
+			long size = Math.max(end - from, 0);
+			long chunk = Math.min(MAX_FILE_CHUNK, Math.max(FILE_CHUNK, size / (pool.getParallelism() * 4)));
+			List<Long> bounds = new ArrayList<Long>();
+			bounds.add(from);
+			// bytes that are not decoded can be split anywhere, decoded bytes between two characters
+			for (long position = from + chunk; position < end; position += chunk) {
+				long bound = rules.isAscii() ? position : characterStart(channel, position);
+				if (bound > bounds.get(bounds.size() - 1) && bound < end) {
+					bounds.add(bound);
+				}
+			}
+			bounds.add(Math.max(end, from));
+			PartialCount count = pool.invoke(new FileTask(channel, bounds, 0, bounds.size() - 1, rules));
+			CountMetrics.COUNT.stop(start);
+			CountMetrics.DOCUMENTS.increment();
+			CountMetrics.CHARACTERS.add(count.getNumCharacters());
+			CountMetrics.BYTES_READ.add(size);
+			return count;
+		}
+		catch (Exception e) {
+			CountMetrics.ERRORS.increment();
+			throw new IOException("File cannot be read: " + f, e);
+		}
+	}
+
+	/** Returns the position of the first character of a UTF-8 file that starts at or after the given position. */
+	public static long characterStart(File f, long position) throws IOException {
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			return characterStart(channel, position);
+		}
+		catch (Exception e) {
+			throw new IOException("File cannot be read: " + f, e);
+		}
+	}
+
+	// Returns the position of the first byte from the given position that is not a UTF-8 continuation byte
+	private static long characterStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(4);
+		channel.read(bytes, position);
+		int i = 0;
+		while (i < bytes.position() && (bytes.get(i) & 0xC0) == 0x80) {
+			i++;
+		}
+		return position + i;
+	}
+
+	/* Counts the text from start to end, or splits it in two halves counted in parallel */
+	private static class TextTask extends RecursiveTask<PartialCount> {
+		private static final long serialVersionUID = 1L;
+		private final CharSequence text;
+		private final int start, end, chunk;
+		private final CountingRules rules;
+
+		TextTask(CharSequence text, int start, int end, int chunk, CountingRules rules) {
+			this.text = text;
+			this.start = start;
+			this.end = end;
+			this.chunk = chunk;
+			this.rules = rules;
+		}
+
+		@Override
+		protected PartialCount compute() {
+			if (end - start <= chunk) {
+				return PartialCount.of(text, start, end, rules);
+			}
+			int middle = (start + end) >>> 1;
+			TextTask left = new TextTask(text, start, middle, chunk, rules);
+			left.fork();
+			PartialCount right = new TextTask(text, middle, end, chunk, rules).compute();
+			return left.join().join(right);
+		}
+	}
+
+	/* Counts the chunks of the file from index first to last, or splits them in two halves */
+	private static class FileTask extends RecursiveTask<PartialCount> {
+		private static final long serialVersionUID = 1L;
+		private final FileChannel channel;
+		private final List<Long> bounds;
+		private final int first, last;
+		private final CountingRules rules;
+
+		FileTask(FileChannel channel, List<Long> bounds, int first, int last, CountingRules rules) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.first = first;
+			this.last = last;
+			this.rules = rules;
+		}
+
+		@Override
+		protected PartialCount compute() {
+			if (last - first == 1) {
+				try {
+					return countChunk(bounds.get(first), bounds.get(last));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			int middle = (first + last) >>> 1;
+			FileTask left = new FileTask(channel, bounds, first, middle, rules);
+			left.fork();
+			PartialCount right = new FileTask(channel, bounds, middle, last, rules).compute();
+			return left.join().join(right);
+		}
+
+		// Maps the bytes from start to end and counts them
+		private PartialCount countChunk(long start, long end) throws IOException {
+			return PartialCount.ofUtf8(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), rules);
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package document;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The counts of a piece of text that can be joined with the counts of the pieces
+ * before and after it, giving the same result as counting the whole text at once.
+ * Besides the totals, it keeps the state of the first and last word of the piece
+ * and whether it starts or ends with an end of sentence punctuation, so that the words,
+ * syllables and sentences that straddle two pieces are only counted once.
+ * A period that follows the first word of a piece, or that starts it, is also kept aside:
+ * whether it ends an abbreviation or a sentence depends on the letters before the piece.
+ * Only the counts of pieces counted with the same rules can be joined.
+ * A PartialCount is immutable. It can be written in a compact binary form and read back,
+ * by another JVM for instance, and joined there with the counts of the other pieces.
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class PartialCount {
+
+	private static final int MAGIC = 0x57435031;  // identifies the counts written by write()
+
+	/** The counts of an empty text, the only instance that holds no character. */
+	public static final PartialCount EMPTY = new PartialCount(null, 0, 0, 0, 0, false,
+			TextCounter.SEPARATOR, TextCounter.SEPARATOR, false, null, null, null);
+
+	private final CountingRules rules;
+	private final long numCharacters, numSyllables, numWords;
+	private final long numTerminators;  // The number of end of sentence punctuation sequences
+	private final boolean endsWithWord;  // The last word is not followed by an end of sentence punctuation
+	private final byte first, last;  // The classes of the first and last characters, as in TextCounter
+	private final boolean single;  // The whole piece is a single word or a single punctuation sequence
+	private final Word head, tail;  // The first and last words when the piece starts or ends with a letter
+	private final Period period;  // The period that follows the first word or starts the piece, if any
+
+	private PartialCount(CountingRules rules, long numCharacters, long numSyllables, long numWords,
+			long numTerminators, boolean endsWithWord, byte first, byte last, boolean single,
+			Word head, Word tail, Period period) {
+		this.rules = rules;
+		this.numCharacters = numCharacters;
+		this.numSyllables = numSyllables;
+		this.numWords = numWords;
+		this.numTerminators = numTerminators;
+		this.endsWithWord = endsWithWord;
+		this.first = first;
+		this.last = last;
+		this.single = single;
+		this.head = head;
+		this.tail = tail;
+		this.period = period;
+	}
+
+	/** Counts the given text from start (inclusive) to end (exclusive). */
+	public static PartialCount of(CharSequence text, int start, int end) {
+		return of(text, start, end, CountingRules.ENGLISH);
+	}
+
+	/** Counts the given text from start (inclusive) to end (exclusive) with the given rules. */
+	public static PartialCount of(CharSequence text, int start, int end, CountingRules rules) {
+		if (start == end) {
+			return EMPTY;
+		}
+		TextCounter counter = new TextCounter(rules);
+		counter.count(text, start, end);
+		return of(counter, text, start, end);
+	}
+
+	/** Counts the given text. */
+	public static PartialCount of(CharSequence text) {
+		return of(text, 0, text.length());
+	}
+
+	/**
+	 * Counts the remaining bytes of the buffer as UTF-8 text without decoding it, see
+	 * TextCounter.countUtf8. The buffer is not consumed. Since any byte that is not ASCII
+	 * is a separator, the text can be split anywhere, even inside an encoded character.
+	 */
+	public static PartialCount ofUtf8(ByteBuffer bytes) {
+		return ofUtf8(bytes, CountingRules.ENGLISH);
+	}
+
+	/**
+	 * Counts the remaining bytes of the buffer as UTF-8 text with the given rules.
+	 * The buffer is not consumed. If the rules have letters or punctuation that are not ASCII,
+	 * the bytes are decoded and the text must not be split inside an encoded character.
+	 */
+	public static PartialCount ofUtf8(ByteBuffer bytes, CountingRules rules) {
+		if (!bytes.hasRemaining()) {
+			return EMPTY;
+		}
+		if (!rules.isAscii()) {
+			CharSequence text = StandardCharsets.UTF_8.decode(bytes.duplicate());
+			return of(text, 0, text.length(), rules);
+		}
+		TextCounter counter = new TextCounter(rules);
+		counter.countUtf8(bytes.duplicate());
+		return of(counter, new Utf8View(bytes), bytes.position(), bytes.limit());
+	}
+
+	// Completes the counts of a non empty text with the state of its first and last words
+	private static PartialCount of(TextCounter counter, CharSequence text, int start, int end) {
+		CountingRules rules = counter.getRules();
+		boolean open = counter.hasOpenSentence();
+		byte last = counter.lastClass();  // a period at the end may not be a punctuation
+		counter.finish();
+		long terminators = open ? counter.getNumSentences() - 1 : counter.getNumSentences();
+
+		byte first = kind(rules, text.charAt(start));
+		int headEnd = start, tailStart = end;
+		while (headEnd < end && kind(rules, text.charAt(headEnd)) == first) {
+			headEnd++;
+		}
+		while (tailStart > start && kind(rules, text.charAt(tailStart - 1)) == last) {
+			tailStart--;
+		}
+		Word head = first == TextCounter.LETTER ? Word.of(rules, text, start, headEnd) : null;
+		Word tail = last == TextCounter.LETTER ? Word.of(rules, text, tailStart, end) : null;
+
+		Period period = null;
+		int dot = first == TextCounter.LETTER ? headEnd : start;
+		if (dot < end && (rules.classes[text.charAt(dot)] & TextCounter.PERIOD) != 0) {
+			// the period was counted with the letters of the piece only
+			boolean abbreviation = head != null && rules.isAbbreviation(head.key);
+			int runEnd = dot + 1;
+			while (runEnd < end && kind(rules, text.charAt(runEnd)) == TextCounter.TERMINATOR) {
+				runEnd++;
+			}
+			boolean alone = runEnd == dot + 1;
+			boolean lastToken = counter.getNumWords() == (head != null ? 1 : 0)
+					&& terminators == (abbreviation && alone ? 0 : 1);
+			period = new Period(abbreviation, alone, lastToken, runEnd == end);
+		}
+
+		return new PartialCount(rules, counter.getNumCharacters(), counter.getNumSyllables(), counter.getNumWords(),
+				terminators, open, first, last, first != TextCounter.SEPARATOR && headEnd == end, head, tail, period);
+	}
+
+	/** Returns the counts of this text followed by the given text. */
+	public PartialCount join(PartialCount next) {
+		if (this == EMPTY) {
+			return next;
+		}
+		if (next == EMPTY) {
+			return this;
+		}
+		if (next.rules != rules) {
+			throw new IllegalArgumentException("Counts made with different rules: " + rules + ", " + next.rules);
+		}
+		if (next.period != null && last == TextCounter.LETTER) {
+			// the letters of this text come before the period of the next one
+			Word word = next.first == TextCounter.LETTER ? tail.join(next.head) : tail;
+			boolean abbreviation = rules.isAbbreviation(word.key);
+			if (abbreviation != next.period.abbreviation) {
+				next = next.withPeriod(abbreviation);
+			}
+		}
+		long syllables = numSyllables + next.numSyllables;
+		long words = numWords + next.numWords;
+		long terminators = numTerminators + next.numTerminators;
+		Word joined = null;
+
+		if (last == TextCounter.LETTER && next.first == TextCounter.LETTER) {
+			// the last word of this text continues in the next one
+			joined = tail.join(next.head);
+			syllables += joined.syllables() - tail.syllables() - next.head.syllables();
+			words--;
+		} else if (last == TextCounter.TERMINATOR && next.first == TextCounter.TERMINATOR) {
+			terminators--;
+		}
+		boolean hasTokens = next.numWords > 0 || next.numTerminators > 0;
+
+		Period joinedPeriod = null;
+		if (period != null) {
+			if (period.atEnd && next.first == TextCounter.TERMINATOR) {
+				// the punctuation sequence of the period continues in the next text
+				joinedPeriod = new Period(period.abbreviation, false,
+						period.last && next.numWords == 0 && next.numTerminators == 1, next.single);
+			} else {
+				joinedPeriod = new Period(period.abbreviation, period.alone, period.last && !hasTokens, false);
+			}
+		} else if (single && last == TextCounter.LETTER) {
+			joinedPeriod = next.period;
+		}
+
+		return new PartialCount(rules, numCharacters + next.numCharacters, syllables, words, terminators,
+				hasTokens ? next.endsWithWord : endsWithWord,
+				first, next.last, single && next.single && last == next.first,
+				single && joined != null ? joined : head,
+				next.single && joined != null ? joined : next.tail, joinedPeriod);
+	}
+
+	// Returns the counts of this text when its period ends an abbreviation, or a sentence
+	private PartialCount withPeriod(boolean abbreviation) {
+		long terminators = numTerminators;
+		byte lastClass = last;
+		if (period.alone) {
+			// the period is the whole punctuation sequence
+			terminators += abbreviation ? -1 : 1;
+			if (period.atEnd) {
+				lastClass = abbreviation ? TextCounter.SEPARATOR : TextCounter.TERMINATOR;
+			}
+		}
+		boolean ends = period.last ? abbreviation && period.alone : endsWithWord;
+		return new PartialCount(rules, numCharacters, numSyllables, numWords, terminators, ends,
+				first, lastClass, single, head, tail, new Period(abbreviation, period.alone, period.last, period.atEnd));
+	}
+
+	/**
+	 * Writes these counts, with the name of their rules and the state of their first and last
+	 * words, in a binary form of at most 78 bytes that read() turns back into equal counts.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeUTF(this == EMPTY ? "" : rules.getName());
+		if (this == EMPTY) {
+			return;
+		}
+		out.writeLong(numCharacters);
+		out.writeLong(numSyllables);
+		out.writeLong(numWords);
+		out.writeLong(numTerminators);
+		out.writeByte(first);
+		out.writeByte(last);
+		out.writeByte(flags(endsWithWord, single, head != null, tail != null, period != null));
+		if (head != null) {
+			head.write(out);
+		}
+		if (tail != null) {
+			tail.write(out);
+		}
+		if (period != null) {
+			out.writeByte(flags(period.abbreviation, period.alone, period.last, period.atEnd));
+		}
+	}
+
+	/**
+	 * Reads counts written by write(). Only the counts made with built-in rules can be read,
+	 * see CountingRules.forName.
+	 */
+	public static PartialCount read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a partial count");
+		}
+		String name = in.readUTF();
+		if (name.isEmpty()) {
+			return EMPTY;
+		}
+		CountingRules rules;
+		try {
+			rules = CountingRules.forName(name);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Counts made with other rules: " + name, e);
+		}
+		long characters = in.readLong(), syllables = in.readLong(), words = in.readLong(), terminators = in.readLong();
+		byte first = in.readByte(), last = in.readByte();
+		int flags = in.readByte();
+		Word head = (flags & 4) != 0 ? Word.read(in) : null;
+		Word tail = (flags & 8) != 0 ? Word.read(in) : null;
+		Period period = null;
+		if ((flags & 16) != 0) {
+			int p = in.readByte();
+			period = new Period((p & 1) != 0, (p & 2) != 0, (p & 4) != 0, (p & 8) != 0);
+		}
+		return new PartialCount(rules, characters, syllables, words, terminators, (flags & 1) != 0,
+				first, last, (flags & 2) != 0, head, tail, period);
+	}
+
+	// Returns the booleans as the bits of a byte, the first one in the lowest bit
+	private static int flags(boolean... values) {
+		int flags = 0;
+		for (int i = 0; i < values.length; i++) {
+			flags |= values[i] ? 1 << i : 0;
+		}
+		return flags;
+	}
+
+	// get methods
+	public CountingRules getRules() {
+		return rules;
+	}
+
+	public long getNumCharacters() {
+		return numCharacters;
+	}
+
+	public long getNumSyllables() {
+		return numSyllables;
+	}
+
+	public long getNumWords() {
+		return numWords;
+	}
+
+	/* The last words form a sentence even if they don't end with a punctuation mark */
+	public long getNumSentences() {
+		return endsWithWord ? numTerminators + 1 : numTerminators;
+	}
+
+	/**
+	 * Returns the Flesch reading ease score of the text:
+	 *       206.835 - 1.015 * (words / sentences) - 84.6 * (syllables / words)
+	 * Higher scores are easier to read. NaN if the text has no word.
+	 */
+	public double getFleschScore() {
+		if (numWords == 0) {
+			return Double.NaN;
+		}
+		return 206.835 - 1.015 * numWords / getNumSentences() - 84.6 * numSyllables / numWords;
+	}
+
+	/**
+	 * Returns the Flesch-Kincaid grade level of the text:
+	 *       0.39 * (words / sentences) + 11.8 * (syllables / words) - 15.59
+	 * NaN if the text has no word.
+	 */
+	public double getFleschKincaidGrade() {
+		if (numWords == 0) {
+			return Double.NaN;
+		}
+		return 0.39 * numWords / getNumSentences() + 11.8 * numSyllables / numWords - 15.59;
+	}
+
+	// Returns the class of a character without its vowel flags: LETTER, TERMINATOR or SEPARATOR
+	private static byte kind(CountingRules rules, char c) {
+		return (byte) (rules.classes[c] & (TextCounter.LETTER | TextCounter.TERMINATOR));
+	}
+
+	/* A period that follows the first word of a piece, or that starts it */
+	private static final class Period {
+		final boolean abbreviation;  // The period was counted as the end of an abbreviation
+		final boolean alone;  // The period is not followed by another end of sentence punctuation
+		final boolean last;  // No word or punctuation follows the punctuation sequence of the period
+		final boolean atEnd;  // The punctuation sequence of the period ends the piece
+
+		Period(boolean abbreviation, boolean alone, boolean last, boolean atEnd) {
+			this.abbreviation = abbreviation;
+			this.alone = alone;
+			this.last = last;
+			this.atEnd = atEnd;
+		}
+	}
+
+	/* The bytes of a UTF-8 text seen as characters, any byte that is not ASCII being a separator */
+	private static final class Utf8View implements CharSequence {
+		private final ByteBuffer bytes;
+
+		Utf8View(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes.get(index) & 0xFF);
+		}
+
+		@Override
+		public int length() {
+			return bytes.limit();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/* The part of a word contained in a piece of text, with what is needed to count
+	 * its syllables once joined with the other parts */
+	private static final class Word {
+		final int vowelSequences;  // The number of contiguous sequences of vowels
+		final boolean startsWithVowel, endsWithVowel;
+		final boolean endsWithE;  // The last letter is an "e"
+		final boolean loneE;  // The last letter is an "e" that follows a consonant
+		final boolean oneLetter;
+		final int length;
+		final long key;  // The key of the letters, to recognize an abbreviation, see CountingRules.key
+
+		Word(int vowelSequences, boolean startsWithVowel, boolean endsWithVowel,
+				boolean endsWithE, boolean loneE, boolean oneLetter, int length, long key) {
+			this.vowelSequences = vowelSequences;
+			this.startsWithVowel = startsWithVowel;
+			this.endsWithVowel = endsWithVowel;
+			this.endsWithE = endsWithE;
+			this.loneE = loneE;
+			this.oneLetter = oneLetter;
+			this.length = length;
+			this.key = key;
+		}
+
+		// Reads the letters of the text from start (inclusive) to end (exclusive)
+		static Word of(CountingRules rules, CharSequence text, int start, int end) {
+			int sequences = 0;
+			boolean prevVowel = false, loneE = false;
+			for (int i = start; i < end; i++) {
+				int cls = rules.classes[text.charAt(i)];
+				boolean vowel = (cls & TextCounter.VOWEL) != 0;
+				if (vowel && !prevVowel) {
+					sequences++;
+				}
+				loneE = (cls & TextCounter.LETTER_E) != 0 && !prevVowel && i > start;
+				prevVowel = vowel;
+			}
+			int firstCls = rules.classes[text.charAt(start)];
+			int lastCls = rules.classes[text.charAt(end - 1)];
+			return new Word(sequences, (firstCls & TextCounter.VOWEL) != 0, prevVowel,
+					(lastCls & TextCounter.LETTER_E) != 0, loneE, end - start == 1,
+					end - start, rules.key(text, start, end));
+		}
+
+		// Returns this part of a word followed by the next part
+		Word join(Word next) {
+			int sequences = vowelSequences + next.vowelSequences;
+			if (endsWithVowel && next.startsWithVowel) {
+				sequences--;
+			}
+			boolean e = next.oneLetter ? next.endsWithE && !endsWithVowel : next.loneE;
+			int joinedLength = length + next.length;
+			long joinedKey = 0;
+			if (key != 0 && next.key != 0 && joinedLength <= CountingRules.MAX_ABBREVIATION) {
+				// the letters of the next part replace the leading 1 bit of its key
+				joinedKey = key << 6 * next.length | next.key ^ 1L << 6 * next.length;
+			}
+			return new Word(sequences, startsWithVowel, next.endsWithVowel, next.endsWithE, e, false,
+					joinedLength, joinedKey);
+		}
+
+		void write(DataOutput out) throws IOException {
+			out.writeInt(vowelSequences);
+			out.writeInt(length);
+			out.writeLong(key);
+			out.writeByte(flags(startsWithVowel, endsWithVowel, endsWithE, loneE, oneLetter));
+		}
+
+		static Word read(DataInput in) throws IOException {
+			int sequences = in.readInt(), length = in.readInt();
+			long key = in.readLong();
+			int f = in.readByte();
+			return new Word(sequences, (f & 1) != 0, (f & 2) != 0, (f & 4) != 0, (f & 8) != 0, (f & 16) != 0, length, key);
+		}
+
+		/* A lone "e" at the end of a word is not a syllable unless the word has no other syllables */
+		long syllables() {
+			return loneE && vowelSequences > 1 ? vowelSequences - 1 : vowelSequences;
+		}
+	}
+}
@@ -1,28 +1,87 @@
 package document;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.Reader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 /** 
  * A class that opens, read a file and stores the text in a String.
  * A class that saves a file to a text file.
  * 
+ * Text is saved as UTF-8 through a FileChannel, encoded in a direct buffer that each thread
+ * reuses. A file that is replaced is first written to a temporary file of its directory,
+ * which is given its permissions and then renamed over it: the file is never left half
+ * written. A link is followed, the file it points to is replaced. The text written is
+ * not kept in memory, getContent() reads the file again when it is asked for.
+ * Writes can run on a background thread, in the order they were requested.
+ * 
+ * Files compressed with gzip or zip, recognized by their first bytes whatever their name,
+ * are read and counted as their decompressed text, which is streamed and never written
+ * to disk. The entries of a zip file are read one after the other, on lines of their own,
+ * and each entry is counted as a text of its own: a word or a sentence never goes on from
+ * the end of an entry to the next one. The entries of a zip file are counted in parallel.
+ * 
  * @author Mickael Grivolat
  */
 
 public class ReadWriteFile {
 
+	private static final int MAP_WINDOW = 1 << 24;  // number of bytes of a file mapped at a time
+	private static final int WRITE_BUFFER = 1 << 16;  // number of bytes encoded before they are written
+	private static final int INFLATE_BUFFER = 1 << 16;  // number of compressed bytes read at a time
+	// how a file is compressed, read from its first bytes
+	private static final int PLAIN = 0, GZIP = 1, ZIP = 2;
+	
+	// direct buffers are costly to create, each writing thread keeps its own
+	private static final ThreadLocal<ByteBuffer> WRITE_BUFFERS =
+			ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(WRITE_BUFFER));
+	// the thread of the asynchronous writes, one at a time so that they are made in order
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Word Count Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
 	private String path, content;
 	private File file;
+	private Future<?> pending = CompletableFuture.completedFuture(null);  // the last asynchronous write
 	
 	/* Reads a file and assign the content locally */
 	public ReadWriteFile(File f) throws IOException{
@@ -54,7 +113,12 @@ public class ReadWriteFile {
 		return path;
 	}
 	
-	public String getContent() {
+	/* The text of the file. After a write it is read from the file, once the pending writes are done */
+	public String getContent() throws IOException {
+		if (content == null && file != null) {
+			awaitWrites();
+			setupRead(path);
+		}
 		return content;
 	}
 	
@@ -76,59 +140,236 @@ public class ReadWriteFile {
 	private void setupRead(String directory) throws IOException {
 		path = directory;
 		InputStream inputStream = null;
+		long start = CountMetrics.start();
 		
 		try {
 			inputStream = getClass().getClassLoader().getResourceAsStream(directory);
             if (inputStream == null) {
             	inputStream = new FileInputStream(directory);
+            	CountMetrics.BYTES_READ.add(new File(directory).length());
             }
-            content = readSourceContent(inputStream);
+            content = readSourceContent(decompress(inputStream));
+            CountMetrics.READ.stop(start);
         }
         catch (Exception e) {
+        	CountMetrics.ERRORS.increment();
         	throw new IOException("File cannot be read: " + directory, e);
         }
 	}
 	
-	// Reads the content of a file and returns it into a string
+	// Reads the content of a file and returns it into a string, the stream is closed.
+	// A failure to close the file fails the read as well, the caller counts it as an error.
 	private String readSourceContent(InputStream inputStream) throws IOException {
-		BufferedReader buffer = null;
-		
-		try {
-        	buffer = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+		try (BufferedReader buffer = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"))) {
         	StringBuilder sb = new StringBuilder();
         	String line;
     		while((line = buffer.readLine()) != null) {
     			sb.append(line + "\n");
     		}
     		return sb.toString();
-    		
-		} catch (Exception e) {
-			throw new IOException("File cannot be read: " + path, e);
-			
-		} finally {
-            try {
-                if (buffer != null) {
-                	buffer.close();
-                }
-            }
-            catch (Exception e) {
-            	e.printStackTrace();
-            }
 		}
 	}
 	
-	// create file for writing from File
+	/* Counts the characters, syllables, words and sentences of a file without storing its content.
+	 * The file is mapped in memory window by window and its UTF-8 bytes are counted without
+	 * being decoded, so the memory used does not depend on the size of the file.
+	 * Unlike getContent(), the line separators are counted as they are stored in the file. */
+	public static TextCounter count(File f) throws IOException {
+		return count(f, CountingRules.ENGLISH);
+	}
+	
+	/* Counts a UTF-8 file without storing its content, with the given rules.
+	 * The entries of a zip file are counted in parallel on the common pool, each as a text of its own. */
+	public static TextCounter count(File f, CountingRules rules) throws IOException {
+		TextCounter counts;
+		if (compression(f) == ZIP) {
+			counts = countEntries(f, rules);
+		} else {
+			StreamingCounter counter = new StreamingCounter(StandardCharsets.UTF_8, rules);
+			count(f, counter);
+			counts = counter.finish();
+		}
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(counts.getNumCharacters());
+		return counts;
+	}
+	
+	/* Feeds the bytes of a file to the counter, following the text it has already counted.
+	 * A compressed file is decompressed as it is read, each entry of a zip file is ended as a text of its own. */
+	public static void count(File f, StreamingCounter counter) throws IOException {
+		long start = CountMetrics.start();
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int compression = compression(channel);
+			if (compression == ZIP) {
+				countEntries(Channels.newInputStream(channel), counter);
+			} else if (compression != PLAIN) {
+				counter.feed(decompress(Channels.newInputStream(channel), compression));
+			}
+			for (long position = 0; compression == PLAIN && position < size; position += MAP_WINDOW) {
+				// a character split by the end of a window is completed by the next one
+				counter.feed(channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAP_WINDOW, size - position)));
+			}
+			CountMetrics.BYTES_READ.add(size);
+			CountMetrics.COUNT.stop(start);
+		}
+		catch (Exception e) {
+			CountMetrics.ERRORS.increment();
+			throw new IOException("File cannot be read: " + f, e);
+		}
+	}
+	
+	// Counts the entries of a zip file in parallel and returns the sum of their counts
+	private static TextCounter countEntries(File f, CountingRules rules) throws IOException {
+		long start = CountMetrics.start();
+		try (ZipFile zip = new ZipFile(f, StandardCharsets.UTF_8)) {
+			List<Future<TextCounter>> entries = new ArrayList<Future<TextCounter>>();
+			for (ZipEntry entry : Collections.list(zip.entries())) {
+				if (!entry.isDirectory()) {
+					// the workers inflate their entries, the zip file only serves the compressed bytes
+					entries.add(ForkJoinPool.commonPool().submit(() -> {
+						StreamingCounter counter = new StreamingCounter(StandardCharsets.UTF_8, rules);
+						try (InputStream stream = zip.getInputStream(entry)) {
+							counter.feed(stream);
+						}
+						return counter.finish();
+					}));
+				}
+			}
+			TextCounter counts = new TextCounter(rules);
+			for (Future<TextCounter> entry : entries) {
+				counts.add(entry.get());
+			}
+			CountMetrics.BYTES_READ.add(f.length());
+			CountMetrics.COUNT.stop(start);
+			return counts;
+		}
+		catch (Exception e) {
+			CountMetrics.ERRORS.increment();
+			throw new IOException("File cannot be read: " + f, e);
+		}
+	}
+	
+	// Feeds the entries of a zip stream to the counter one after the other, each ended as a text of its own
+	private static void countEntries(InputStream stream, StreamingCounter counter) throws IOException {
+		try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(stream, INFLATE_BUFFER), StandardCharsets.UTF_8)) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (!entry.isDirectory()) {
+					counter.feed(zip);
+					counter.endText();
+				}
+			}
+		}
+	}
+	
+	/* Counts a file from its windows mapped in order, as count(File, CountingRules) does, so that
+	 * a file whose windows were just mapped and read, to be hashed for instance, is not read again.
+	 * The entries of a zip file are counted one after the other. */
+	static TextCounter count(List<ByteBuffer> windows, CountingRules rules) throws IOException {
+		long start = CountMetrics.start();
+		StreamingCounter counter = new StreamingCounter(StandardCharsets.UTF_8, rules);
+		byte[] header = new byte[4];
+		int len = 0;
+		if (!windows.isEmpty()) {
+			ByteBuffer first = windows.get(0).duplicate();
+			len = Math.min(header.length, first.remaining());
+			first.get(header, 0, len);
+		}
+		int compression = compression(header, len);
+		long size = 0;
+		for (ByteBuffer window : windows) {
+			size += window.remaining();
+			if (compression == PLAIN) {
+				counter.feed(window.duplicate());
+			}
+		}
+		if (compression == ZIP) {
+			countEntries(new Windows(windows), counter);
+		} else if (compression != PLAIN) {
+			counter.feed(decompress(new Windows(windows), compression));
+		}
+		TextCounter counts = counter.finish();
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(counts.getNumCharacters());
+		CountMetrics.BYTES_READ.add(size);
+		CountMetrics.COUNT.stop(start);
+		return counts;
+	}
+	
+	/* Returns true if the file is compressed with gzip or zip, in which case it is decompressed when it is
+	 * read or counted: its text cannot be read where it is stored, and appending to it appends no text */
+	public static boolean isCompressed(File f) throws IOException {
+		return compression(f) != PLAIN;
+	}
+	
+	/* Returns true if the open file is compressed with gzip or zip */
+	public static boolean isCompressed(FileChannel channel) throws IOException {
+		return compression(channel) != PLAIN;
+	}
+	
+	// Returns how the file is compressed: PLAIN, GZIP or ZIP
+	private static int compression(File f) throws IOException {
+		try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			return compression(channel);
+		}
+	}
+	
+	private static int compression(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+		}
+		return compression(header.array(), header.position());
+	}
+	
+	// Returns how the first bytes of a file are compressed, from the magic numbers of gzip and zip
+	private static int compression(byte[] header, int len) {
+		if (len >= 2 && header[0] == (byte) 0x1F && header[1] == (byte) 0x8B) {
+			return GZIP;
+		}
+		if (len >= 4 && header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4) {
+			return ZIP;
+		}
+		return PLAIN;
+	}
+	
+	// Returns the decompressed bytes of the stream, or the stream itself if it is not compressed
+	private static InputStream decompress(InputStream stream) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(stream, INFLATE_BUFFER);
+		byte[] header = new byte[4];
+		buffered.mark(header.length);
+		int len = buffered.readNBytes(header, 0, header.length);
+		buffered.reset();
+		int compression = compression(header, len);
+		return compression == PLAIN ? buffered : decompress(buffered, compression);
+	}
+	
+	private static InputStream decompress(InputStream stream, int compression) throws IOException {
+		if (compression == GZIP) {
+			// the members of a gzip file that were concatenated are read one after the other
+			return new GZIPInputStream(stream, INFLATE_BUFFER);
+		}
+		return new ZipEntries(new ZipInputStream(new BufferedInputStream(stream, INFLATE_BUFFER), StandardCharsets.UTF_8));
+	}
+	
+	/* Counts the UTF-8 bytes of an open file from position (inclusive) to end (exclusive), following
+	 * the text the counter has already counted, so that only what was appended to a file is read */
+	public static void count(FileChannel channel, long position, long end, TextCounter counter) throws IOException {
+		long start = CountMetrics.start();
+		for (long from = position; from < end; from += MAP_WINDOW) {
+			counter.countUtf8(channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(MAP_WINDOW, end - from)));
+		}
+		CountMetrics.BYTES_READ.add(end - position);
+		CountMetrics.COUNT.stop(start);
+	}
+	
+	// create file for writing from File, its content is only read if getContent() is called
 	private void setupWrite(File f) throws IOException {
         try {
             file = f;
-            if (f.exists() && f.canWrite()) {
-                setupRead(f.getCanonicalPath());
-            }
-            else {
-            	// content is set by using the write method
-            	content = "";
-                path = f.getCanonicalPath();
-            }
+            path = f.getCanonicalPath();
+            content = f.exists() ? null : "";
         }
         catch (Exception e) {
             throw new IOException("File cannot be accessed: " + f, e);
@@ -164,39 +405,319 @@ public class ReadWriteFile {
     
     /* Writes a list of strings to the end of this file, one element per line. 
      * Use boolean to replace text entirely or append to the file. 
+     * The asynchronous writes requested before are done first.
      */
     public void write (ArrayList<String> list, boolean append) throws IOException {
         if (file != null) {
-            // build string to save
-            StringBuilder sb = new StringBuilder();
-            for (String s : list) {
-                sb.append(s);
-                sb.append("\n");
+            awaitWrites();
+            content = null;
+            writeLines(list, append);
+        }
+    }
+    
+    /* Writes a string to this file on a background thread and returns at once.
+     * onWritten is called on that thread once the string is written, with null, or with
+     * the error if the file could not be changed. The file must not be changed meanwhile. */
+    public Future<?> writeAsync (String s, boolean append, Consumer<IOException> onWritten) {
+        return writeAsync(Arrays.asList(s), append, onWritten);
+    }
+    
+    /* Writes a list of strings to this file on a background thread, one element per line */
+    public Future<?> writeAsync (List<String> list, boolean append, Consumer<IOException> onWritten) {
+        return writeAsync(channel -> encode(list, channel), append, onWritten);
+    }
+    
+    /* Replaces this file by the characters of the reader on a background thread, as they are read:
+     * the text is never held in memory as a whole. The reader is closed once it is written. */
+    public Future<?> writeAsync (Reader reader, Consumer<IOException> onWritten) {
+        return writeAsync(channel -> {
+            try (reader) {
+                return encode(reader, channel);
             }
-            // save it locally (so it can be read later)
-            content += sb.toString();
-            // save it externally to the file
-            PrintWriter writer = null;
+        }, false, onWritten);
+    }
+    
+    private synchronized Future<?> writeAsync (Text text, boolean append, Consumer<IOException> onWritten) {
+        if (file == null) {
+            onWritten.accept(null);
+            return pending;
+        }
+        content = null;
+        pending = WRITER.submit(() -> {
+            IOException error = null;
             try {
-                writer = new PrintWriter(new FileWriter(file, append));
-                writer.println(sb.toString());
+                writeText(text, append);
             }
-            catch (Exception e) {
-                throw new IOException("File cannot be changed: " + file);
+            catch (IOException e) {
+                error = e;
             }
-            finally {
+            onWritten.accept(error);
+        });
+        return pending;
+    }
+    
+    // Waits for the asynchronous writes of this file
+    private void awaitWrites() throws IOException {
+        Future<?> last;
+        synchronized (this) {
+            last = pending;
+        }
+        try {
+            last.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writes: " + file, e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("File cannot be changed: " + file, e.getCause());
+        }
+    }
+    
+    // Saves the lines to the file
+    private void writeLines (List<String> list, boolean append) throws IOException {
+        writeText(channel -> encode(list, channel), append);
+    }
+    
+    // Saves the text to the file: in place to append, otherwise to a temporary file renamed over the file
+    private void writeText (Text text, boolean append) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = null;
+        long start = CountMetrics.start();
+        try {
+            if (Files.exists(target)) {
+                // a link is followed: the file it points to is replaced, the link is kept
+                target = target.toRealPath();
+            }
+            FileChannel channel;
+            if (append) {
+                channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            else {
+                // the temporary file is created with the default permissions, as a new file would be,
+                // then given those of the file it replaces
+                temp = target.resolveSibling("." + target.getFileName() + "." + Long.toUnsignedString(System.nanoTime(), 36) + ".tmp");
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            try (channel) {
+                if (temp != null) {
+                    // in the block, so that the channel is closed if they cannot be copied
+                    copyAttributes(target, temp);
+                }
+                CountMetrics.BYTES_WRITTEN.add(text.encode(channel));
+                channel.force(false);
+            }
+            if (temp != null) {
                 try {
-                    if (writer != null) {
-                        writer.close();
-                    }
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
                 }
-                catch (Exception e) {
-                    // do nothing
+                catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
                 }
+                temp = null;
+            }
+            CountMetrics.WRITE.stop(start);
+        }
+        catch (Exception e) {
+            CountMetrics.ERRORS.increment();
+            throw new IOException("File cannot be changed: " + file, e);
+        }
+        finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+    
+    // Encodes the lines as UTF-8 into the buffer of the thread, written each time it is full, and returns the number of bytes
+    private static long encode (List<String> list, FileChannel channel) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = WRITE_BUFFERS.get();
+        CharBuffer newLine = CharBuffer.wrap("\n");
+        long bytes = 0;
+        buffer.clear();
+        for (String s : list) {
+            bytes += encode(encoder, CharBuffer.wrap(s), false, buffer, channel);
+            bytes += encode(encoder, newLine.rewind(), false, buffer, channel);
+        }
+        bytes += encode(encoder, CharBuffer.allocate(0), true, buffer, channel);
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            bytes += drain(buffer, channel);
+        }
+        return bytes + drain(buffer, channel);
+    }
+    
+    // Encodes the characters of the reader as UTF-8, a buffer at a time, and returns the number of bytes
+    private static long encode (Reader reader, FileChannel channel) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buffer = WRITE_BUFFERS.get();
+        CharBuffer chars = CharBuffer.allocate(WRITE_BUFFER);
+        long bytes = 0;
+        buffer.clear();
+        while (reader.read(chars) >= 0) {
+            chars.flip();
+            // a surrogate pair split by the end of the buffer is kept for the next read
+            bytes += encode(encoder, chars, false, buffer, channel);
+            chars.compact();
+        }
+        chars.flip();
+        bytes += encode(encoder, chars, true, buffer, channel);
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            bytes += drain(buffer, channel);
+        }
+        return bytes + drain(buffer, channel);
+    }
+    
+    private static long encode (CharsetEncoder encoder, CharBuffer chars, boolean last, ByteBuffer buffer,
+            FileChannel channel) throws IOException {
+        long bytes = 0;
+        while (encoder.encode(chars, buffer, last) == CoderResult.OVERFLOW) {
+            bytes += drain(buffer, channel);
+        }
+        return bytes;
+    }
+    
+    // Writes the bytes of the buffer to the channel and clears it
+    private static int drain (ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return bytes;
+    }
+	
+    // Gives the permissions and owner of the file, if it exists, to the file that replaces it
+    private static void copyAttributes(Path file, Path copy) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        PosixFileAttributeView posix = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        if (posix != null) {
+            PosixFileAttributes attributes = posix.readAttributes();
+            PosixFileAttributeView view = Files.getFileAttributeView(copy, PosixFileAttributeView.class);
+            view.setPermissions(attributes.permissions());
+            try {
+                view.setGroup(attributes.group());
+                view.setOwner(attributes.owner());
+            }
+            catch (IOException e) {
+                // only a privileged user can give a file to another user, the file is then owned by the writer
+            }
+            return;
+        }
+        AclFileAttributeView acl = Files.getFileAttributeView(file, AclFileAttributeView.class);
+        if (acl != null) {
+            AclFileAttributeView view = Files.getFileAttributeView(copy, AclFileAttributeView.class);
+            view.setAcl(acl.getAcl());
+            try {
+                view.setOwner(acl.getOwner());
+            }
+            catch (IOException e) {
+                // the file is then owned by the writer
             }
         }
     }
 	
+	/* A text that is encoded to a file */
+	private interface Text {
+		long encode(FileChannel channel) throws IOException;
+	}
+	
+	/* The decompressed bytes of the entries of a zip stream, one entry after the other, separated
+	 * by a newline so that the last word of an entry is not joined to the first word of the next */
+	private static final class ZipEntries extends InputStream {
+		private final ZipInputStream zip;
+		private boolean inEntry;
+		private boolean separate;  // an entry has been read, the next one starts on a new line
+		
+		ZipEntries(ZipInputStream zip) {
+			this.zip = zip;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!inEntry) {
+					ZipEntry entry = zip.getNextEntry();
+					if (entry == null) {
+						return -1;
+					}
+					inEntry = !entry.isDirectory();
+					if (inEntry && separate) {
+						b[off] = '\n';
+						return 1;
+					}
+					separate |= inEntry;
+					continue;
+				}
+				int n = zip.read(b, off, len);
+				if (n >= 0) {
+					return n;
+				}
+				inEntry = false;
+			}
+			return 0;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			zip.close();
+		}
+	}
+	
+	/* The bytes of the mapped windows of a file, one window after the other */
+	private static final class Windows extends InputStream {
+		private final List<ByteBuffer> windows;
+		private ByteBuffer window = ByteBuffer.allocate(0);
+		private int next;  // index of the window read after the current one
+		
+		Windows(List<ByteBuffer> windows) {
+			this.windows = windows;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			return nextWindow() ? window.get() & 0xFF : -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextWindow()) {
+				return -1;
+			}
+			int n = Math.min(len, window.remaining());
+			window.get(b, off, n);
+			return n;
+		}
+		
+		// Moves on to the next window that has bytes left, returns false at the end of the file
+		private boolean nextWindow() {
+			while (!window.hasRemaining()) {
+				if (next == windows.size()) {
+					return false;
+				}
+				window = windows.get(next++).duplicate();
+			}
+			return true;
+		}
+	}
+	
 	public static void main(String[] args) throws IOException {
 		// ReadWriteFile source = new ReadWriteFile("src\\Test File.txt");		
 		String str = "This text should be found in the newly saved file";
@@ -0,0 +1,228 @@
+package document;
+
+import java.util.Random;
+
+/**
+ * An index of the sentences of a text that answers the counts and readability scores of
+ * any range of the text, such as a selection, a paragraph or a single sentence, without
+ * counting the range again.
+ * The text is cut into segments of a few sentences: after the first end of sentence
+ * punctuation sequence that follows MIN_SEGMENT characters, or after MAX_SEGMENT characters
+ * in a long sentence. The counts of the segments are joined exactly wherever they are cut,
+ * and a segment of a few sentences keeps the index small and fast to build.
+ * The counts of each segment are kept in a balanced binary tree (a treap ordered by position),
+ * in which every node also holds the joined counts of its subtree. The segments fully covered
+ * by a range are answered in O(log n) joins, only the segments cut by the ends of the range
+ * are counted. After an edit, only the segments around the edited offsets are counted again.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class ReadabilityIndex {
+
+	private static final int MIN_SEGMENT = 1 << 10;  // number of characters after which a segment ends with a sentence
+	private static final int MAX_SEGMENT = 1 << 12;  // number of characters after which a segment ends anyway
+
+	private final Random random = new Random();
+	private final CountingRules rules;
+	private Node root;
+
+	/** Creates the index of the given text. */
+	public ReadabilityIndex(CharSequence text) {
+		this(text, CountingRules.ENGLISH);
+	}
+
+	/** Creates the index of the given text, counted with the given rules. */
+	public ReadabilityIndex(CharSequence text, CountingRules rules) {
+		this.rules = rules;
+		root = build(text, 0, text.length());
+	}
+
+	/**
+	 * Updates the index after an edit: removed characters were replaced by inserted characters
+	 * at the given offset. The text is the new text, of which only the segments around the
+	 * edit are read.
+	 */
+	public void update(CharSequence text, int offset, int removed, int inserted) {
+		int oldLength = length(root);
+		// from the start of the segment before the edit to the end of the segment after it
+		int start = offset == 0 ? 0 : segmentStart(offset - 1);
+		int end = offset + removed == oldLength ? oldLength : segmentEnd(offset + removed);
+
+		Node[] before = split(root, start);
+		Node[] after = split(before[1], end - start);
+		root = merge(merge(before[0], build(text, start, end + inserted - removed)), after[1]);
+	}
+
+	/** Returns the counts of the text from start (inclusive) to end (exclusive). */
+	public PartialCount count(CharSequence text, int start, int end) {
+		if (start >= end) {
+			return PartialCount.EMPTY;
+		}
+		int firstEnd = segmentEnd(start), lastStart = segmentStart(end - 1);
+		if (firstEnd >= end) {
+			return PartialCount.of(text, start, end, rules);
+		}
+		return PartialCount.of(text, start, firstEnd, rules)
+				.join(range(root, 0, firstEnd, lastStart))
+				.join(PartialCount.of(text, lastStart, end, rules));
+	}
+
+	/** Returns the counts of the whole text. */
+	public PartialCount count() {
+		return root == null ? PartialCount.EMPTY : root.total;
+	}
+
+	/** Returns the number of segments the text is cut into. */
+	public int getNumSegments() {
+		return root == null ? 0 : root.size;
+	}
+
+	/** Returns the offset at which the segment containing the given offset starts. */
+	public int segmentStart(int offset) {
+		int base = 0;
+		for (Node n = root; n != null;) {
+			int left = length(n.left);
+			if (offset < base + left) {
+				n = n.left;
+			} else if (offset < base + left + n.length) {
+				return base + left;
+			} else {
+				base += left + n.length;
+				n = n.right;
+			}
+		}
+		return base;
+	}
+
+	/** Returns the offset at which the segment containing the given offset ends. */
+	public int segmentEnd(int offset) {
+		int start = segmentStart(offset);
+		return start + segmentLength(start);
+	}
+
+	// Returns the length of the segment starting at the given offset
+	private int segmentLength(int start) {
+		int base = 0;
+		for (Node n = root; n != null;) {
+			int left = length(n.left);
+			if (start < base + left) {
+				n = n.left;
+			} else if (start == base + left) {
+				return n.length;
+			} else {
+				base += left + n.length;
+				n = n.right;
+			}
+		}
+		return 0;
+	}
+
+	// Returns the joined counts of the whole segments from start to end, under the node at base
+	private static PartialCount range(Node n, int base, int start, int end) {
+		if (n == null || end <= base || start >= base + n.totalLength) {
+			return PartialCount.EMPTY;
+		}
+		if (start <= base && base + n.totalLength <= end) {
+			return n.total;
+		}
+		int nodeStart = base + length(n.left);
+		PartialCount count = range(n.left, base, start, end);
+		if (start <= nodeStart && nodeStart + n.length <= end) {
+			count = count.join(n.count);
+		}
+		return count.join(range(n.right, nodeStart + n.length, start, end));
+	}
+
+	// Cuts the text from start to end into segments and returns their tree
+	private Node build(CharSequence text, int start, int end) {
+		Node tree = null;
+		int segment = start;
+		for (int i = start + 1; i <= end; i++) {
+			// a segment ends after the end of sentence punctuation of its last sentence
+			if (i == end || i - segment == MAX_SEGMENT || (i - segment >= MIN_SEGMENT
+					&& isTerminator(text.charAt(i - 1)) && !isTerminator(text.charAt(i)))) {
+				tree = merge(tree, new Node(PartialCount.of(text, segment, i, rules), i - segment, random.nextInt()));
+				segment = i;
+			}
+		}
+		return tree;
+	}
+
+	private boolean isTerminator(char c) {
+		return (rules.classes[c] & TextCounter.TERMINATOR) != 0;
+	}
+
+	// Splits the tree into the segments before the offset and the segments after it.
+	// The offset must be the start of a segment.
+	private static Node[] split(Node n, int offset) {
+		if (n == null) {
+			return new Node[2];
+		}
+		int left = length(n.left);
+		if (offset <= left) {
+			Node[] parts = split(n.left, offset);
+			n.left = parts[1];
+			n.update();
+			return new Node[] { parts[0], n };
+		}
+		Node[] parts = split(n.right, offset - left - n.length);
+		n.right = parts[0];
+		n.update();
+		return new Node[] { n, parts[1] };
+	}
+
+	// Joins two trees, the segments of a being before the segments of b
+	private static Node merge(Node a, Node b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			a.update();
+			return a;
+		}
+		b.left = merge(a, b.left);
+		b.update();
+		return b;
+	}
+
+	private static int length(Node n) {
+		return n == null ? 0 : n.totalLength;
+	}
+
+	/* A segment, with the joined counts of the segments of its subtree */
+	private static final class Node {
+		final PartialCount count;
+		final int length, priority;
+		PartialCount total;
+		int totalLength, size;
+		Node left, right;
+
+		Node(PartialCount count, int length, int priority) {
+			this.count = count;
+			this.length = length;
+			this.priority = priority;
+			update();
+		}
+
+		void update() {
+			total = count;
+			totalLength = length;
+			size = 1;
+			if (left != null) {
+				total = left.total.join(total);
+				totalLength += left.totalLength;
+				size += left.size;
+			}
+			if (right != null) {
+				total = total.join(right.total);
+				totalLength += right.totalLength;
+				size += right.size;
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A counter the text is pushed to as it arrives, for instance from a pipe, a socket
+ * or a decompressor, so that it never needs to be held in memory.
+ * The text can be fed as characters or as encoded bytes, in pieces of any size:
+ * a word, a sentence or even an encoded character split between two pieces is
+ * counted as if the text had been given at once.
+ * UTF-8 bytes are counted as they are, without being decoded, unless the rules have
+ * letters or punctuation that are not ASCII.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class StreamingCounter {
+
+	private static final int WINDOW = 1 << 13;  // number of characters or bytes read at a time
+
+	private final TextCounter counter;
+	private final CharsetDecoder decoder;
+	private final boolean utf8;
+	private final CharBuffer chars = CharBuffer.allocate(WINDOW);
+	private final ByteBuffer carry = ByteBuffer.allocate(16);  // bytes of a character split between two pieces
+	private boolean finished;
+
+	/** Creates a counter that decodes the bytes it is fed as UTF-8. */
+	public StreamingCounter() {
+		this(StandardCharsets.UTF_8);
+	}
+
+	/** Creates a counter that decodes the bytes it is fed with the given charset. */
+	public StreamingCounter(Charset charset) {
+		this(charset, CountingRules.ENGLISH);
+	}
+
+	/** Creates a counter with the given rules that decodes the bytes it is fed with the given charset. */
+	public StreamingCounter(Charset charset, CountingRules rules) {
+		counter = new TextCounter(rules);
+		utf8 = charset.equals(StandardCharsets.UTF_8);
+		decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/** Counts the given text, following the text fed so far. */
+	public void feed(CharSequence text) {
+		checkOpen();
+		counter.count(text);
+	}
+
+	/** Counts len characters of the given array from offset off. */
+	public void feed(char[] text, int off, int len) {
+		checkOpen();
+		counter.count(text, off, len);
+	}
+
+	/**
+	 * Decodes and counts the remaining bytes of the buffer, which is consumed.
+	 * The bytes of a character that is not complete are kept until the next call.
+	 */
+	public void feed(ByteBuffer bytes) {
+		checkOpen();
+		if (utf8) {
+			counter.countUtf8(bytes);
+			return;
+		}
+		// complete the character split by the previous call, one byte at a time
+		while (carry.position() > 0 && bytes.hasRemaining()) {
+			carry.put(bytes.get());
+			carry.flip();
+			decode(carry, false);
+			carry.compact();
+		}
+		if (carry.position() == 0) {
+			decode(bytes, false);
+			carry.put(bytes);
+		}
+	}
+
+	/** Counts the characters of the reader until its end. The reader is not closed. */
+	public void feed(Reader reader) throws IOException {
+		char[] buffer = new char[WINDOW];
+		int len;
+		while ((len = reader.read(buffer)) >= 0) {
+			feed(buffer, 0, len);
+		}
+	}
+
+	/** Decodes and counts the bytes of the stream until its end. The stream is not closed. */
+	public void feed(InputStream stream) throws IOException {
+		byte[] bytes = new byte[WINDOW];
+		ByteBuffer wrapper = ByteBuffer.wrap(bytes);
+		int len;
+		while ((len = stream.read(bytes)) >= 0) {
+			wrapper.limit(len).position(0);
+			feed(wrapper);
+		}
+	}
+
+	/**
+	 * Returns the counts of the text fed so far as if it ended here.
+	 * The bytes of a character that is not complete yet are not counted.
+	 */
+	public TextCounter snapshot() {
+		return counter.snapshot();
+	}
+
+	/**
+	 * Ends the text and returns its counts. The bytes of an incomplete character are
+	 * counted as a replacement character. Nothing can be fed afterwards.
+	 */
+	public TextCounter finish() {
+		if (!finished) {
+			finished = true;
+			carry.flip();
+			decode(carry, true);
+			decoder.flush(chars);
+			drain();
+			counter.finish();
+		}
+		return counter;
+	}
+
+	/* Ends the text fed so far as finish() does, but the counter goes on counting the text that follows
+	 * as a new text: a word or a sentence that is not ended is counted, and not continued by what follows */
+	void endText() {
+		checkOpen();
+		carry.flip();
+		decode(carry, true);
+		decoder.flush(chars);
+		drain();
+		counter.finish();
+		decoder.reset();
+		carry.clear();
+	}
+
+	/**
+	 * Forgets the text fed so far, even if it is not finished: the counter, its buffers and
+	 * its decoder are reused for the next text, which is counted as if the counter was new.
+	 */
+	public void reset() {
+		counter.reset();
+		decoder.reset();
+		chars.clear();
+		carry.clear();
+		finished = false;
+	}
+
+	// Decodes the bytes into the character buffer, which is emptied into the counter when full
+	private void decode(ByteBuffer bytes, boolean endOfInput) {
+		long start = CountMetrics.start();
+		CoderResult result;
+		do {
+			result = decoder.decode(bytes, chars, endOfInput);
+			drain();
+		} while (result.isOverflow());
+		CountMetrics.DECODE.stop(start);
+	}
+
+	// Feeds the decoded characters to the counter and clears the buffer
+	private void drain() {
+		chars.flip();
+		counter.count(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+		chars.clear();
+	}
+
+	private void checkOpen() {
+		if (finished) {
+			throw new IllegalStateException("The text has already been counted");
+		}
+	}
+}
@@ -0,0 +1,526 @@
+package document;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A character-level state machine that counts the number of characters, syllables,
+ * words and sentences of a text in a single pass.
+ * Characters are classified through a lookup table, no token or substring is created
+ * and the text may be given in several pieces: the state of the current word and
+ * sentence is carried over from one call to the next.
+ *
+ * The counting rules are the ones described in {@link Document}:
+ *       A word is a contiguous sequence of alphabetic characters a-z or A-Z.
+ *       A sentence ends with a contiguous sequence of end of sentence punctuation
+ *       (. ! or ?) or with the last word of the text.
+ *       Each contiguous sequence of one or more vowels is a syllable,
+ *       with the following exception: a lone "e" at the end of a word
+ *       is not considered a syllable unless the word has no other syllables.
+ *       The letter y is considered a vowel.
+ * Other letters, vowels, punctuation and abbreviations can be given as CountingRules.
+ *
+ * A counter owns all the state it needs and allocates nothing as it counts: it can be
+ * reset and reused for the next text, and forThread() returns the counter of the current
+ * thread for the built-in rules, so that a worker counts any number of texts without garbage.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class TextCounter {
+
+	// Character classes, combined as bit flags in the lookup tables of CountingRules.
+	// LETTER_E marks a silent letter, PERIOD an end of sentence punctuation that can end an abbreviation.
+	static final byte SEPARATOR = 0, LETTER = 1, VOWEL = 2, LETTER_E = 4, TERMINATOR = 8, PERIOD = 16;
+	private static final char REPLACEMENT = '\uFFFD';  // the character of a malformed UTF-8 sequence
+	// Number of UTF-16 characters started by each byte of a UTF-8 text: none for a continuation
+	// byte and two for the first byte of a 4 bytes sequence, which is a surrogate pair
+	private static final byte[] UTF8_WIDTHS = new byte[256];
+	static {
+		for (int b = 0; b < 256; b++) {
+			UTF8_WIDTHS[b] = (byte) ((b & 0xC0) == 0x80 ? 0 : (b & 0xF8) == 0xF0 ? 2 : 1);
+		}
+	}
+
+	private static final int VECTOR_MIN = 256;  // number of characters from which the vector kernel is used
+	private static final int VECTOR_CHUNK = 1 << 14;  // number of characters the vector kernel counts at a time
+	// the text is copied to a buffer for the vector kernel, after LOOK_BACK spaces
+	private static final ThreadLocal<byte[]> VECTOR_BUFFERS = ThreadLocal.withInitial(() -> {
+		byte[] buffer = new byte[VectorCounter.LOOK_BACK + VECTOR_CHUNK];
+		Arrays.fill(buffer, 0, VectorCounter.LOOK_BACK, (byte) ' ');
+		return buffer;
+	});
+
+	// the counters of forThread(), the classes of the package have pools of their own
+	private static final Pool POOL = new Pool();
+
+	private final CountingRules rules;
+	private final byte[] classes, codes;
+	private final long[] vectorCounts;  // the counts of the vector kernel, null if there is none
+	private boolean syllables;  // the vowels of the words are followed, see TextCounter(CountingRules, boolean)
+	private long numCharacters, numSyllables, numWords, numSentences;
+
+	// State of the scan between two characters
+	private boolean inWord;        // the last character is a letter
+	private boolean inTerminator;  // the last character is an end of sentence punctuation
+	private boolean openSentence;  // a word has been read since the last end of sentence punctuation
+	private boolean prevVowel;     // the last letter of the current word is a vowel
+	private boolean loneE;         // the current word ends with an "e" that follows a consonant
+	private int wordSyllables;     // the number of vowel sequences in the current word
+	private long wordKey;          // the letters of the current word, to recognize an abbreviation
+	private int utf8Char, utf8Pending;  // the bits of a UTF-8 character being decoded, and its missing bytes
+
+	/** Creates a counter with the rules of Document that has not read any text yet. */
+	public TextCounter() {
+		this(CountingRules.ENGLISH);
+	}
+
+	/** Creates a counter with the given rules that has not read any text yet. */
+	public TextCounter(CountingRules rules) {
+		this(rules, true);
+	}
+
+	/*
+	 * Creates a counter that only counts the characters, words and sentences of the text if syllables
+	 * is false: the vowels of the words are not followed and the number of syllables is meaningless
+	 */
+	TextCounter(CountingRules rules, boolean syllables) {
+		this.rules = rules;
+		this.syllables = syllables;
+		classes = rules.classes;
+		codes = rules.codes;
+		vectorCounts = rules.vectors != null ? new long[4] : null;
+	}
+
+	// Creates a counter in the same state as the given one
+	private TextCounter(TextCounter counter) {
+		this(counter.rules, counter.syllables);
+		numCharacters = counter.numCharacters;
+		numSyllables = counter.numSyllables;
+		numWords = counter.numWords;
+		numSentences = counter.numSentences;
+		inWord = counter.inWord;
+		inTerminator = counter.inTerminator;
+		openSentence = counter.openSentence;
+		prevVowel = counter.prevVowel;
+		loneE = counter.loneE;
+		wordSyllables = counter.wordSyllables;
+		wordKey = counter.wordKey;
+		utf8Char = counter.utf8Char;
+		utf8Pending = counter.utf8Pending;
+	}
+
+	/**
+	 * Returns the counter of the current thread for the given rules, reset: it is the same
+	 * counter on each call, so it must be done with before the thread asks for it again.
+	 * Only the counters of the built-in rules, ENGLISH and FRENCH, are kept: other rules
+	 * get a new counter, which the caller can reset and reuse.
+	 */
+	public static TextCounter forThread(CountingRules rules) {
+		return POOL.get(rules, true);
+	}
+
+	/** Forgets the text counted so far: the counter counts the next text as if it was new. */
+	public void reset() {
+		reset(true);
+	}
+
+	/* Forgets the text counted so far, the next text is counted with or without its syllables */
+	void reset(boolean syllables) {
+		this.syllables = syllables;
+		numCharacters = 0;
+		numSyllables = 0;
+		numWords = 0;
+		numSentences = 0;
+		inWord = false;
+		inTerminator = false;
+		openSentence = false;
+		prevVowel = false;
+		loneE = false;
+		wordSyllables = 0;
+		wordKey = 0;
+		utf8Char = 0;
+		utf8Pending = 0;
+	}
+
+	/** Counts the given text, following the text counted so far. */
+	public void count(CharSequence text) {
+		count(text, 0, text.length());
+	}
+
+	/** Counts the characters of the given text from start (inclusive) to end (exclusive). */
+	public void count(CharSequence text, int start, int end) {
+		int i = start;
+		if (rules.vectors != null) {
+			byte[] buffer = VECTOR_BUFFERS.get();
+			while (end - i >= VECTOR_MIN) {
+				if (inWord || inTerminator) {
+					step(text.charAt(i++));
+					continue;
+				}
+				// the characters are narrowed to bytes, those that are not ASCII are all separators
+				int n = Math.min(end - i, VECTOR_CHUNK);
+				for (int k = 0; k < n; k++) {
+					buffer[VectorCounter.LOOK_BACK + k] = (byte) Math.min(text.charAt(i + k), 0x80);
+				}
+				i += countVectors(buffer, n, false);
+			}
+		}
+		if (syllables) {
+			scan(text, i, end);
+		} else {
+			scanWords(text, i, end);
+		}
+		numCharacters += end - start;
+	}
+
+	/** Counts len characters of the given array from offset off. */
+	public void count(char[] text, int off, int len) {
+		int i = off, end = off + len;
+		if (rules.vectors != null) {
+			byte[] buffer = VECTOR_BUFFERS.get();
+			while (end - i >= VECTOR_MIN) {
+				if (inWord || inTerminator) {
+					step(text[i++]);
+					continue;
+				}
+				// the characters are narrowed to bytes, those that are not ASCII are all separators
+				int n = Math.min(end - i, VECTOR_CHUNK);
+				for (int k = 0; k < n; k++) {
+					buffer[VectorCounter.LOOK_BACK + k] = (byte) Math.min(text[i + k], 0x80);
+				}
+				i += countVectors(buffer, n, false);
+			}
+		}
+		if (syllables) {
+			scan(text, i, end);
+		} else {
+			scanWords(text, i, end);
+		}
+		numCharacters += len;
+	}
+
+	/**
+	 * Counts the remaining bytes of the buffer as UTF-8 text, and consumes them.
+	 * When the rules only look at ASCII letters and punctuation, the bytes are not decoded:
+	 * any other byte is a separator. Otherwise the characters are decoded on the fly.
+	 * The characters are counted from the bytes that start them. For well-formed UTF-8
+	 * the counts are the same as for the decoded text, even if a character is split between
+	 * two buffers. A malformed byte that is not a continuation byte counts as one character.
+	 */
+	public void countUtf8(ByteBuffer bytes) {
+		long characters = 0;
+		if (!rules.isAscii()) {
+			for (int i = bytes.position(), end = bytes.limit(); i < end; i++) {
+				int b = bytes.get(i) & 0xFF;
+				decode(b);
+				characters += UTF8_WIDTHS[b];
+			}
+		} else if (rules.vectors != null && bytes.remaining() >= VECTOR_MIN) {
+			byte[] buffer = VECTOR_BUFFERS.get();
+			int i = bytes.position(), end = bytes.limit();
+			while (i < end) {
+				if (end - i < VECTOR_MIN || inWord || inTerminator) {
+					int b = bytes.get(i++) & 0xFF;
+					step((char) b);
+					characters += UTF8_WIDTHS[b];
+					continue;
+				}
+				int n = Math.min(end - i, VECTOR_CHUNK);
+				bytes.get(i, buffer, VectorCounter.LOOK_BACK, n);
+				i += countVectors(buffer, n, true);
+			}
+		} else if (bytes.hasArray()) {
+			byte[] array = bytes.array();
+			for (int i = bytes.arrayOffset() + bytes.position(), end = bytes.arrayOffset() + bytes.limit(); i < end; i++) {
+				int b = array[i] & 0xFF;
+				step((char) b);
+				characters += UTF8_WIDTHS[b];
+			}
+		} else {
+			for (int i = bytes.position(), end = bytes.limit(); i < end; i++) {
+				int b = bytes.get(i) & 0xFF;
+				step((char) b);
+				characters += UTF8_WIDTHS[b];
+			}
+		}
+		bytes.position(bytes.limit());
+		numCharacters += characters;
+	}
+
+	/**
+	 * Ends the text: the word being read is counted and the last words form a sentence
+	 * even if they don't end with a punctuation mark.
+	 */
+	public void finish() {
+		if (utf8Pending > 0) {
+			utf8Pending = 0;
+			step(REPLACEMENT);
+		}
+		endWord();
+		if (openSentence) {
+			numSentences++;
+			openSentence = false;
+		}
+		inTerminator = false;
+	}
+
+	/**
+	 * Returns the counts of the text read so far as if it ended here.
+	 * This counter is not changed and can keep counting the text that follows.
+	 */
+	public TextCounter snapshot() {
+		TextCounter copy = new TextCounter(this);
+		copy.finish();
+		return copy;
+	}
+
+	/* Adds the counts of another text, counted on its own and finished, such as another file */
+	void add(TextCounter other) {
+		numCharacters += other.numCharacters;
+		numSyllables += other.numSyllables;
+		numWords += other.numWords;
+		numSentences += other.numSentences;
+	}
+
+	/**
+	 * Returns true if the last word read is not followed by an end of sentence punctuation,
+	 * in which case finish() counts one more sentence.
+	 */
+	public boolean hasOpenSentence() {
+		return inWord || openSentence;
+	}
+
+	/* Returns how the last character read was counted: as a LETTER, a TERMINATOR or a SEPARATOR */
+	byte lastClass() {
+		return inWord ? LETTER : inTerminator ? TERMINATOR : SEPARATOR;
+	}
+
+	/**
+	 * Returns the number of syllables of a single word, with the rules of Document:
+	 * each contiguous sequence of vowels is a syllable, except a lone "e" at the end of
+	 * the word when the word has other syllables. Any character other than a vowel is
+	 * read as a consonant.
+	 */
+	public static int countSyllables(CharSequence word) {
+		return CountingRules.ENGLISH.countSyllables(word);
+	}
+
+	/** Returns true if the character is neither a letter nor an end of sentence punctuation. */
+	public static boolean isSeparator(char c) {
+		return CountingRules.ENGLISH.isSeparator(c);
+	}
+
+	// get methods
+	public CountingRules getRules() {
+		return rules;
+	}
+
+	public long getNumCharacters() {
+		return numCharacters;
+	}
+
+	public long getNumSyllables() {
+		return numSyllables;
+	}
+
+	public long getNumWords() {
+		return numWords;
+	}
+
+	public long getNumSentences() {
+		return numSentences;
+	}
+
+	// The loops over the characters are kept in small methods, so that C2 inlines step() in them
+
+	private void scan(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			step(text.charAt(i));
+		}
+	}
+
+	private void scan(char[] text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			step(text[i]);
+		}
+	}
+
+	private void scanWords(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			stepWord(text.charAt(i));
+		}
+	}
+
+	private void scanWords(char[] text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			stepWord(text[i]);
+		}
+	}
+
+	/* Moves the state machine forward by one character */
+	private void step(char c) {
+		int cls = classes[c];
+
+		if ((cls & LETTER) != 0) {
+			boolean vowel = (cls & VOWEL) != 0;
+			if (!inWord) {
+				inWord = true;
+				inTerminator = false;
+				prevVowel = false;
+				wordSyllables = 0;
+				wordKey = 1;
+			}
+			if (vowel && !prevVowel) {
+				wordSyllables++;
+			}
+			loneE = (cls & LETTER_E) != 0 && !prevVowel;
+			prevVowel = vowel;
+			// past MAX_ABBREVIATION letters the key can no longer be the key of an abbreviation
+			wordKey = wordKey << 6 | codes[c];
+		} else {
+			stepOther(cls);
+		}
+	}
+
+	/* Moves the state machine forward by one character without following the vowels, for the counters without syllables */
+	private void stepWord(char c) {
+		int cls = classes[c];
+
+		if ((cls & LETTER) != 0) {
+			if (!inWord) {
+				inWord = true;
+				inTerminator = false;
+				wordKey = 1;
+			}
+			wordKey = wordKey << 6 | codes[c];
+		} else {
+			stepOther(cls);
+		}
+	}
+
+	/* Moves the state machine forward by one character that is not a letter */
+	private void stepOther(int cls) {
+		if ((cls & PERIOD) != 0 && inWord && rules.isAbbreviation(wordKey)) {
+			cls = SEPARATOR;  // the period of an abbreviation does not end the sentence
+		}
+		endWord();
+		if (cls != SEPARATOR) {
+			if (!inTerminator) {
+				inTerminator = true;
+				openSentence = false;
+				numSentences++;
+			}
+		} else {
+			inTerminator = false;
+		}
+	}
+
+	/* Moves the state machine forward by one byte of UTF-8 text, once the character it ends is decoded */
+	private void decode(int b) {
+		if ((b & 0xC0) == 0x80) {
+			if (utf8Pending == 0) {
+				step(REPLACEMENT);  // a continuation byte without a first byte
+			} else {
+				utf8Char = utf8Char << 6 | (b & 0x3F);
+				if (--utf8Pending == 0) {
+					if (utf8Char < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+						step((char) utf8Char);
+					} else {
+						step(Character.highSurrogate(utf8Char));
+						step(Character.lowSurrogate(utf8Char));
+					}
+				}
+			}
+			return;
+		}
+		if (utf8Pending > 0) {
+			utf8Pending = 0;
+			step(REPLACEMENT);  // the previous character is not complete
+		}
+		if (b < 0x80) {
+			step((char) b);
+		} else if (b >= 0xC0 && b < 0xF8) {
+			utf8Pending = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : 1;
+			utf8Char = b & (0x3F >> utf8Pending);
+		} else {
+			step(REPLACEMENT);
+		}
+	}
+
+	/*
+	 * Counts n bytes of the buffer, that follow LOOK_BACK separators, with the vector kernel
+	 * and returns the number of bytes counted, which are whole vectors. The word or punctuation
+	 * sequence the last vector ends in is read again, to restore the state of the scan.
+	 */
+	private int countVectors(byte[] buffer, int n, boolean utf8) {
+		int start = VectorCounter.LOOK_BACK;
+		long[] counts = vectorCounts;
+		Arrays.fill(counts, 0);
+		int end = rules.vectors.count(buffer, start, start + n, counts, syllables);
+		numSyllables += counts[VectorCounter.SYLLABLES];
+		numWords += counts[VectorCounter.WORDS];
+		numSentences += counts[VectorCounter.SENTENCES];
+		if (utf8) {
+			numCharacters += counts[VectorCounter.CHARACTERS];
+		}
+
+		// the last word or punctuation sequence, and what precedes it: a word, punctuation or nothing
+		int last = end;
+		while (last > start && (classes[buffer[last - 1] & 0xFF] & LETTER) != 0) {
+			last--;
+		}
+		int before = last;
+		while (before > start && classes[buffer[before - 1] & 0xFF] == SEPARATOR) {
+			before--;
+		}
+		if (before > start) {
+			openSentence = (classes[buffer[before - 1] & 0xFF] & LETTER) != 0;
+		}
+		inTerminator = last == end && classes[buffer[end - 1] & 0xFF] != SEPARATOR;
+		// the syllables of the last word are counted once it ends
+		for (int i = last; i < end; i++) {
+			step((char) buffer[i]);
+		}
+		if (last < end) {
+			numSyllables -= wordSyllables;
+		}
+		return end - start;
+	}
+
+	/*
+	 * A counter of each thread for each built-in rule set. The rule sets that users create are
+	 * not pooled: a counter refers to its rules, which the threads would keep alive as long as they live.
+	 */
+	static final class Pool extends ThreadLocal<TextCounter[]> {
+
+		@Override
+		protected TextCounter[] initialValue() {
+			return new TextCounter[2];
+		}
+
+		/* Returns the counter of the current thread for the given rules, reset to follow the vowels or not */
+		TextCounter get(CountingRules rules, boolean syllables) {
+			int k = rules == CountingRules.ENGLISH ? 0 : rules == CountingRules.FRENCH ? 1 : -1;
+			if (k < 0) {
+				return new TextCounter(rules, syllables);
+			}
+			TextCounter[] counters = get();
+			if (counters[k] == null) {
+				counters[k] = new TextCounter(rules);
+			}
+			counters[k].reset(syllables);
+			return counters[k];
+		}
+	}
+
+	/* Counts the word being read, if any, and its syllables */
+	private void endWord() {
+		if (inWord) {
+			inWord = false;
+			openSentence = true;
+			numWords++;
+			numSyllables += (loneE && wordSyllables > 1) ? wordSyllables - 1 : wordSyllables;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package document;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The counting kernel of TextCounter for ASCII text, written with the Vector API, which
+ * classifies a whole vector of bytes at each step instead of one character at a time.
+ * This is the only class that uses the jdk.incubator.vector module: it is only loaded when
+ * the module is present, see CountingRules, and the counters read the text one character
+ * at a time otherwise.
+ *
+ * The class of each byte is looked up in tables of LANES classes and stored in an array,
+ * then the class of the byte before each lane is read from the vector that starts one byte
+ * earlier, so that the starts and ends of words, vowel sequences and punctuation sequences
+ * are lane-wise operations, and the counts are the number of lanes where they occur:
+ *       a word ends where a letter is followed by another character,
+ *       a syllable starts where a vowel follows another character,
+ *       a sentence ends where end of sentence punctuation follows another character,
+ *       and a word that ends with a lone silent letter after a consonant has one syllable
+ *       less if a vowel precedes the consonant, which is looked for up to LOOK_BACK bytes back.
+ * The text must start where no word or punctuation sequence is open, and be preceded by
+ * LOOK_BACK bytes that are read but not counted. Only whole vectors are counted: the caller
+ * counts the last characters and restores the state of the word being read.
+ * The rules must only have ASCII letters and punctuation, no abbreviation, and silent
+ * letters that are vowels.
+ *
+ * @author Mickael Grivolat
+ */
+
+final class VectorCounter {
+
+	/** Number of bytes before the text that are read, but not counted. */
+	static final int LOOK_BACK = 6;
+	/** Indexes of the counts returned by count(). */
+	static final int CHARACTERS = 0, SYLLABLES = 1, WORDS = 2, SENTENCES = 3;
+
+	private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final ByteVector ZERO = ByteVector.zero(SPECIES);
+
+	// the classes of the bytes counted by each thread, after LOOK_BACK separators,
+	// and where the bytes are consonants, in the VOWEL bit so that they combine with the vowels
+	private static final ThreadLocal<byte[]> CLASSES = ThreadLocal.withInitial(() -> new byte[0]);
+	private static final ThreadLocal<byte[]> CONSONANTS = ThreadLocal.withInitial(() -> new byte[0]);
+
+	// the classes of the ASCII characters, LANES per table: 2 tables of 64 classes or 4 tables of 32
+	private final ByteVector table0, table1, table2, table3;
+
+	private VectorCounter(byte[] classes) {
+		ByteVector[] tables = new ByteVector[4];
+		for (int t = 0; t < tables.length; t++) {
+			byte[] part = new byte[LANES];
+			for (int i = 0; i < LANES; i++) {
+				int c = t * LANES + i;
+				part[i] = c < 128 ? classes[c] : TextCounter.SEPARATOR;
+			}
+			tables[t] = ByteVector.fromArray(SPECIES, part, 0);
+		}
+		table0 = tables[0];
+		table1 = tables[1];
+		table2 = tables[2];
+		table3 = tables[3];
+	}
+
+	/* Returns the kernel of the rules, null if they or the processor do not allow it */
+	static VectorCounter of(CountingRules rules) {
+		if ((LANES != 32 && LANES != 64) || !rules.isAscii() || rules.hasAbbreviations()) {
+			return null;
+		}
+		for (int c = 0; c < 128; c++) {
+			int cls = rules.classes[c];
+			if ((cls & TextCounter.LETTER_E) != 0 && (cls & TextCounter.VOWEL) == 0) {
+				return null;
+			}
+		}
+		return new VectorCounter(rules.classes);
+	}
+
+	/** Returns the number of bytes counted at each step. */
+	static int lanes() {
+		return LANES;
+	}
+
+	/**
+	 * Counts the bytes of the text from start (inclusive) to at most end (exclusive), in whole
+	 * vectors, adds the counts to the given array and returns where it stopped.
+	 * The syllables of the word that the last vector ends in, if any, are included.
+	 * If withSyllables is false, the syllables are not counted.
+	 */
+	int count(byte[] text, int start, int end, long[] counts, boolean withSyllables) {
+		byte[] classes = CLASSES.get(), consonants = CONSONANTS.get();
+		if (classes.length < end) {
+			classes = new byte[end];
+			consonants = new byte[end];
+			CLASSES.set(classes);
+			CONSONANTS.set(consonants);
+		}
+		// the classes are looked up once, then read at the offsets of the current and previous bytes:
+		// the two loops are kept apart, C2 stops inlining the vector operations of larger methods
+		int stop = start + (end - start) / LANES * LANES;
+		counts[CHARACTERS] += classify(text, classes, consonants, start, stop, withSyllables);
+		countClasses(classes, consonants, start, stop, counts, withSyllables);
+		return stop;
+	}
+
+	/*
+	 * Stores the classes of the bytes from start to stop, and whether they are consonants if the
+	 * syllables are counted, then returns the number of UTF-8 characters they start
+	 */
+	private long classify(byte[] text, byte[] classes, byte[] consonants, int start, int stop, boolean withSyllables) {
+		long characters = 0;
+		for (int i = start; i < stop; i += LANES) {
+			ByteVector bytes = ByteVector.fromArray(SPECIES, text, i);
+			ByteVector cls = classify(bytes);
+			cls.intoArray(classes, i);
+			if (withSyllables) {
+				ZERO.blend(TextCounter.VOWEL, cls.and((byte) (TextCounter.LETTER | TextCounter.VOWEL))
+						.compare(VectorOperators.EQ, TextCounter.LETTER)).intoArray(consonants, i);
+			}
+			// UTF-8 continuation bytes start no character, the first byte of a surrogate pair starts two
+			characters += LANES - bytes.and((byte) 0xC0).compare(VectorOperators.EQ, (byte) 0x80).trueCount()
+					+ bytes.and((byte) 0xF8).compare(VectorOperators.EQ, (byte) 0xF0).trueCount();
+		}
+		return characters;
+	}
+
+	// Adds the syllables, if asked for, words and sentences of the classes from start to stop to the counts
+	private static void countClasses(byte[] classes, byte[] consonants, int start, int stop, long[] counts,
+			boolean withSyllables) {
+		long syllables = 0, words = 0, sentences = 0;
+		for (int i = start; i < stop; i += LANES) {
+			ByteVector current = ByteVector.fromArray(SPECIES, classes, i);
+			ByteVector previous = ByteVector.fromArray(SPECIES, classes, i - 1);
+			// the classes the previous character has and this one has not, and the other way around
+			VectorMask<Byte> wordEnds = has(previous.and(current.not()), TextCounter.LETTER);
+			ByteVector starts = current.and(previous.not());
+			words += wordEnds.trueCount();
+			sentences += has(starts, TextCounter.TERMINATOR).trueCount();
+			if (!withSyllables) {
+				continue;
+			}
+			syllables += has(starts, TextCounter.VOWEL).trueCount();
+
+			// a silent letter that ends a word after a consonant is not a syllable if a vowel precedes it:
+			// the consonant, then up to LOOK_BACK - 2 consonants or a vowel are read, in the VOWEL bit
+			VectorMask<Byte> lone = wordEnds.and(has(previous, TextCounter.LETTER_E));
+			ByteVector consonant = ByteVector.fromArray(SPECIES, consonants, i - 2);
+			ByteVector before3 = ByteVector.fromArray(SPECIES, consonants, i - 3);
+			ByteVector before4 = ByteVector.fromArray(SPECIES, consonants, i - 4);
+			ByteVector before5 = ByteVector.fromArray(SPECIES, consonants, i - 5);
+			ByteVector found = ByteVector.fromArray(SPECIES, classes, i - 5).or(before5.and(ByteVector.fromArray(SPECIES, classes, i - 6)));
+			found = ByteVector.fromArray(SPECIES, classes, i - 4).or(before4.and(found));
+			found = ByteVector.fromArray(SPECIES, classes, i - 3).or(before3.and(found));
+			ByteVector open = consonant.and(before3).and(before4).and(before5)
+					.and(ByteVector.fromArray(SPECIES, consonants, i - 6));
+			if (has(open, TextCounter.VOWEL).and(lone).anyTrue()) {
+				// more consonants are rare in any language, the lanes are then read one at a time
+				syllables -= countLoneLetters(classes, i);
+			} else {
+				syllables -= has(consonant.and(found), TextCounter.VOWEL).and(lone).trueCount();
+			}
+		}
+		counts[SYLLABLES] += syllables;
+		counts[WORDS] += words;
+		counts[SENTENCES] += sentences;
+	}
+
+	// Returns the number of words that end in the vector at i with a lone silent letter which is not a syllable
+	private static int countLoneLetters(byte[] classes, int i) {
+		int words = 0;
+		for (int end = i; end < i + LANES; end++) {
+			if ((classes[end] & TextCounter.LETTER) == 0 && (classes[end - 1] & TextCounter.LETTER_E) != 0) {
+				int k = end - 2;
+				while ((classes[k] & (TextCounter.LETTER | TextCounter.VOWEL)) == TextCounter.LETTER) {
+					k--;
+				}
+				if (k < end - 2 && (classes[k] & TextCounter.VOWEL) != 0) {
+					words++;
+				}
+			}
+		}
+		return words;
+	}
+
+	// Returns the classes of the bytes, any byte that is not ASCII being a separator
+	private ByteVector classify(ByteVector bytes) {
+		ByteVector index = bytes.and((byte) (LANES - 1));
+		ByteVector classes;
+		if (LANES == 64) {
+			classes = index.selectFrom(table0).blend(index.selectFrom(table1),
+					bytes.and((byte) 64).compare(VectorOperators.NE, (byte) 0));
+		} else {
+			ByteVector high = bytes.and((byte) 0x60);
+			classes = index.selectFrom(table0)
+					.blend(index.selectFrom(table1), high.compare(VectorOperators.EQ, (byte) 0x20))
+					.blend(index.selectFrom(table2), high.compare(VectorOperators.EQ, (byte) 0x40))
+					.blend(index.selectFrom(table3), high.compare(VectorOperators.EQ, (byte) 0x60));
+		}
+		// the bytes of 128 and more are negative
+		return classes.blend(TextCounter.SEPARATOR, bytes.compare(VectorOperators.LT, (byte) 0));
+	}
+
+	private static VectorMask<Byte> has(ByteVector classes, byte flag) {
+		return classes.and(flag).compare(VectorOperators.NE, (byte) 0);
+	}
+}
@@ -0,0 +1,425 @@
+package document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts how many times each word, and optionally each sequence of two or three words
+ * (bigram and trigram), appears in a text, and returns the most frequent ones.
+ * Words follow the rules of Document, or the given CountingRules, and are compared ignoring
+ * case. N-grams do not cross the end of a sentence, and as in TextCounter the period of an
+ * abbreviation does not end the sentence: "M. Dupont" is a bigram of the French rules.
+ *
+ * The words are interned while the text is scanned: the codes of their letters in the rules,
+ * which are the same in both cases, are stored once in a shared byte array with the lowercase
+ * spelling of the word, and they are found through an open addressing hash table of
+ * int identifiers with int counters, so no String or Integer is created per occurrence.
+ * A bigram is keyed by the identifiers of its two words, and a trigram by the identifier
+ * of its first bigram and of its last word. Each table holds at most maxEntries entries,
+ * which bounds the memory used: the words and n-grams seen once a table is full are only
+ * counted as dropped. As for the abbreviations of TextCounter, the letters of rules that have
+ * more than 62 letters share a code past the 62nd, and the words that only differ by them are
+ * counted as one.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class WordFrequency {
+
+	private final CountingRules rules;
+	private final byte[] classes, codes;  // the tables of the rules, see TextCounter
+	private final int maxEntries;
+
+	// The words: the codes of their letters in letters[wordStart[id] .. wordStart[id] + wordLength[id]],
+	// and their lowercase spelling at the same offsets of spellings
+	private byte[] letters = new byte[1 << 12];
+	private char[] spellings = new char[1 << 12];
+	private int numLetters;
+	private int[] wordStart = new int[256], wordLength = new int[256], wordHash = new int[256];
+	private int[] wordCount = new int[256];
+	private int numWords;
+	private int[] wordSlots = new int[512];  // identifier + 1 of the word in each slot, 0 if empty
+
+	private final Table bigrams, trigrams;
+	private long numDropped;
+
+	// State of the scan
+	private byte[] word = new byte[32];  // codes of the letters of the word being read
+	private char[] wordChars = new char[32];  // its lowercase letters
+	private int wordSize, hash;
+	private long wordKey = 1;  // the letters of the word being read, to recognize an abbreviation
+	private int prevWord = -1;  // identifier of the previous word of the sentence
+	private int prevBigram = -1;  // identifier of the bigram ending with the previous word
+
+	/** Counts the words, and the n-grams up to maxN words (1 to 3), of at most maxEntries each. */
+	public WordFrequency(int maxN, int maxEntries) {
+		this(maxN, maxEntries, CountingRules.ENGLISH);
+	}
+
+	/** Counts the words and n-grams with the letters of the given rules. */
+	public WordFrequency(int maxN, int maxEntries, CountingRules rules) {
+		if (maxN < 1 || maxN > 3) {
+			throw new IllegalArgumentException("N-grams of 1 to 3 words are supported: " + maxN);
+		}
+		this.maxEntries = maxEntries;
+		this.rules = rules;
+		classes = rules.classes;
+		codes = rules.codes;
+		bigrams = maxN >= 2 ? new Table() : null;
+		trigrams = maxN >= 3 ? new Table() : null;
+	}
+
+	/** Counts the words of the given text, following the text counted so far. */
+	public void count(CharSequence text) {
+		for (int i = 0, len = text.length(); i < len; i++) {
+			step(text.charAt(i));
+		}
+	}
+
+	/** Counts the words of len characters of the given array from offset off. */
+	public void count(char[] text, int off, int len) {
+		for (int i = off, end = off + len; i < end; i++) {
+			step(text[i]);
+		}
+	}
+
+	/** Ends the text: the word being read is counted. */
+	public void finish() {
+		endWord();
+		prevWord = -1;
+		prevBigram = -1;
+	}
+
+	/** Returns the number of times the given word appeared, ignoring case. */
+	public int getCount(String w) {
+		byte[] lower = new byte[w.length()];
+		int h = 0;
+		for (int i = 0; i < w.length(); i++) {
+			char c = w.charAt(i);
+			if ((classes[c] & TextCounter.LETTER) == 0) {
+				return 0;
+			}
+			lower[i] = codes[c];
+			h = 31 * h + lower[i];
+		}
+		int slot = findWord(lower, lower.length, h);
+		return wordSlots[slot] == 0 ? 0 : wordCount[wordSlots[slot] - 1];
+	}
+
+	// get methods
+	public int getNumDistinctWords() {
+		return numWords;
+	}
+
+	public int getNumDistinctBigrams() {
+		return bigrams == null ? 0 : bigrams.size;
+	}
+
+	public int getNumDistinctTrigrams() {
+		return trigrams == null ? 0 : trigrams.size;
+	}
+
+	/* The number of words and n-grams that were not counted because their table was full */
+	public long getNumDropped() {
+		return numDropped;
+	}
+
+	/** Returns the k most frequent words, the most frequent first. */
+	public List<Entry> topWords(int k) {
+		List<Entry> top = new ArrayList<Entry>();
+		for (int id : top(wordCount, numWords, k)) {
+			top.add(new Entry(wordText(id), wordCount[id]));
+		}
+		return top;
+	}
+
+	/** Returns the k most frequent bigrams, the most frequent first. */
+	public List<Entry> topBigrams(int k) {
+		List<Entry> top = new ArrayList<Entry>();
+		if (bigrams != null) {
+			for (int id : top(bigrams.counts, bigrams.size, k)) {
+				top.add(new Entry(bigramText(id), bigrams.counts[id]));
+			}
+		}
+		return top;
+	}
+
+	/** Returns the k most frequent trigrams, the most frequent first. */
+	public List<Entry> topTrigrams(int k) {
+		List<Entry> top = new ArrayList<Entry>();
+		if (trigrams != null) {
+			for (int id : top(trigrams.counts, trigrams.size, k)) {
+				long key = trigrams.keys[id];
+				top.add(new Entry(bigramText((int) (key >>> 32)) + " " + wordText((int) key), trigrams.counts[id]));
+			}
+		}
+		return top;
+	}
+
+	/* Moves the scan forward by one character */
+	private void step(char c) {
+		int cls = classes[c];
+		if ((cls & TextCounter.LETTER) != 0) {
+			append(c);
+		} else {
+			if ((cls & TextCounter.PERIOD) != 0 && wordSize > 0 && rules.isAbbreviation(wordKey)) {
+				cls = TextCounter.SEPARATOR;  // the period of an abbreviation does not end the sentence
+			}
+			endWord();
+			if (cls != TextCounter.SEPARATOR) {
+				prevWord = -1;
+				prevBigram = -1;
+			}
+		}
+	}
+
+	// Adds a letter to the word being read, its code and its lowercase form
+	private void append(char c) {
+		if (wordSize == word.length) {
+			word = Arrays.copyOf(word, wordSize * 2);
+			wordChars = Arrays.copyOf(wordChars, wordSize * 2);
+		}
+		byte b = codes[c];
+		wordChars[wordSize] = Character.toLowerCase(c);
+		word[wordSize++] = b;
+		hash = 31 * hash + b;
+		// past MAX_ABBREVIATION letters the key can no longer be the key of an abbreviation
+		wordKey = wordKey << 6 | b;
+	}
+
+	// Interns the word being read and counts it with the n-grams it ends
+	private void endWord() {
+		if (wordSize == 0) {
+			return;
+		}
+		int id = internWord();
+		wordSize = 0;
+		hash = 0;
+		wordKey = 1;
+		if (id < 0) {
+			numDropped++;
+			prevWord = -1;
+			prevBigram = -1;
+			return;
+		}
+		wordCount[id]++;
+
+		int bigram = -1;
+		if (bigrams != null && prevWord >= 0) {
+			bigram = bigrams.add((long) prevWord << 32 | id);
+			if (bigram < 0) {
+				numDropped++;
+			}
+			if (trigrams != null && prevBigram >= 0 && trigrams.add((long) prevBigram << 32 | id) < 0) {
+				numDropped++;
+			}
+		}
+		prevWord = id;
+		prevBigram = bigram;
+	}
+
+	// Returns the identifier of the word being read, adding it if it is new, -1 if the table is full
+	private int internWord() {
+		int slot = findWord(word, wordSize, hash);
+		if (wordSlots[slot] != 0) {
+			return wordSlots[slot] - 1;
+		}
+		if (numWords == maxEntries) {
+			return -1;
+		}
+		if (numWords == wordStart.length) {
+			int capacity = numWords * 2;
+			wordStart = Arrays.copyOf(wordStart, capacity);
+			wordLength = Arrays.copyOf(wordLength, capacity);
+			wordHash = Arrays.copyOf(wordHash, capacity);
+			wordCount = Arrays.copyOf(wordCount, capacity);
+		}
+		if (numLetters + wordSize > letters.length) {
+			letters = Arrays.copyOf(letters, Math.max(letters.length * 2, numLetters + wordSize));
+			spellings = Arrays.copyOf(spellings, letters.length);
+		}
+		System.arraycopy(word, 0, letters, numLetters, wordSize);
+		System.arraycopy(wordChars, 0, spellings, numLetters, wordSize);
+		int id = numWords++;
+		wordStart[id] = numLetters;
+		wordLength[id] = wordSize;
+		wordHash[id] = hash;
+		numLetters += wordSize;
+		wordSlots[slot] = id + 1;
+		if (numWords * 2 > wordSlots.length) {
+			rehashWords();
+		}
+		return id;
+	}
+
+	// Returns the slot of the word of the given letter codes, or the empty slot where they would be added
+	private int findWord(byte[] w, int len, int h) {
+		int mask = wordSlots.length - 1;
+		for (int slot = mix(h) & mask;; slot = (slot + 1) & mask) {
+			int id = wordSlots[slot] - 1;
+			if (id < 0 || (wordHash[id] == h && wordLength[id] == len
+					&& Arrays.equals(letters, wordStart[id], wordStart[id] + len, w, 0, len))) {
+				return slot;
+			}
+		}
+	}
+
+	private void rehashWords() {
+		wordSlots = new int[wordSlots.length * 2];
+		int mask = wordSlots.length - 1;
+		for (int id = 0; id < numWords; id++) {
+			int slot = mix(wordHash[id]) & mask;
+			while (wordSlots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			wordSlots[slot] = id + 1;
+		}
+	}
+
+	private String wordText(int id) {
+		return new String(spellings, wordStart[id], wordLength[id]);
+	}
+
+	private String bigramText(int id) {
+		long key = bigrams.keys[id];
+		return wordText((int) (key >>> 32)) + " " + wordText((int) key);
+	}
+
+	// Spreads the bits of a hash code over the slots of a table
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private static int mix(long key) {
+		return mix((int) (key ^ (key >>> 32)) * 0x9E3779B1);
+	}
+
+	// Returns the identifiers of the k largest counts, the largest first, using a bounded min-heap
+	private static int[] top(int[] counts, int size, int k) {
+		k = Math.min(k, size);
+		int[] heap = new int[k];
+		int heapSize = 0;
+		for (int id = 0; id < size; id++) {
+			if (heapSize < k) {
+				heap[heapSize] = id;
+				siftUp(heap, heapSize++, counts);
+			} else if (k > 0 && counts[id] > counts[heap[0]]) {
+				heap[0] = id;
+				siftDown(heap, heapSize, counts);
+			}
+		}
+		// empty the heap from the smallest count to the largest
+		int[] sorted = new int[heapSize];
+		for (int i = heapSize - 1; i >= 0; i--) {
+			sorted[i] = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heap, heapSize, counts);
+		}
+		return sorted;
+	}
+
+	private static void siftUp(int[] heap, int i, int[] counts) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (counts[heap[parent]] <= counts[heap[i]]) {
+				return;
+			}
+			int t = heap[parent];
+			heap[parent] = heap[i];
+			heap[i] = t;
+			i = parent;
+		}
+	}
+
+	private static void siftDown(int[] heap, int size, int[] counts) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+				child++;
+			}
+			if (counts[heap[i]] <= counts[heap[child]]) {
+				return;
+			}
+			int t = heap[child];
+			heap[child] = heap[i];
+			heap[i] = t;
+			i = child;
+		}
+	}
+
+	/* An open addressing table of long keys with int counters, the entries keep their identifier */
+	private final class Table {
+		long[] keys = new long[256];
+		int[] counts = new int[256];
+		int size;
+		int[] slots = new int[512];  // identifier + 1 of the entry in each slot, 0 if empty
+
+		// Counts one more occurrence of the key and returns its identifier, -1 if the table is full
+		int add(long key) {
+			int mask = slots.length - 1;
+			int slot = mix(key) & mask;
+			for (int id; (id = slots[slot] - 1) >= 0; slot = (slot + 1) & mask) {
+				if (keys[id] == key) {
+					counts[id]++;
+					return id;
+				}
+			}
+			if (size == maxEntries) {
+				return -1;
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				counts = Arrays.copyOf(counts, size * 2);
+			}
+			int id = size++;
+			keys[id] = key;
+			counts[id] = 1;
+			slots[slot] = id + 1;
+			if (size * 2 > slots.length) {
+				slots = new int[slots.length * 2];
+				mask = slots.length - 1;
+				for (int i = 0; i < size; i++) {
+					int s = mix(keys[i]) & mask;
+					while (slots[s] != 0) {
+						s = (s + 1) & mask;
+					}
+					slots[s] = i + 1;
+				}
+			}
+			return id;
+		}
+	}
+
+	/** A word or n-gram with the number of times it appeared. */
+	public static final class Entry {
+		private final String text;
+		private final int count;
+
+		Entry(String text, int count) {
+			this.text = text;
+			this.count = count;
+		}
+
+		// get methods
+		public String getText() {
+			return text;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return text + "=" + count;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package gui;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import document.CountMetrics;
+import document.PartialCount;
+import document.ReadabilityIndex;
+
+/**
+ * Counts the whole text of a CountingDocument on a background thread when its counts
+ * are stale, so that opening a file or pasting a large block does not freeze the user interface.
+ * Requests made in a burst of edits are coalesced: the count starts once the edits pause
+ * for DELAY milliseconds, or at most MAX_DELAY milliseconds after the first request.
+ * The text is read from a snapshot, so the document is only locked while the snapshot is
+ * taken and can be edited during the count. The text is counted by building the index of its
+ * sentences chunk by chunk, whose total is the count of the whole text. A count that is
+ * overtaken by a newer edit is abandoned, and the counts and the index are installed in the
+ * document and shown on the Event Dispatch Thread.
+ *
+ * @author Mickael Grivolat
+ */
+
+class BackgroundCounter {
+
+	private static final int DELAY = 100, MAX_DELAY = 500;  // milliseconds
+	private static final int CHUNK = 1 << 16;  // number of characters read at a time
+
+	// the thread of the counts, shared by the documents opened one after the other
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Word Count");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final CountingDocument document;
+	private final Runnable onCounted;
+	private final Timer timer;
+	private Future<?> task;
+	private volatile int numRequests;  // a count stops when a newer one is requested
+	private long firstRequest;
+
+	/* Counts the given document, onCounted is run on the Event Dispatch Thread once it is counted */
+	BackgroundCounter(CountingDocument document, Runnable onCounted) {
+		this.document = document;
+		this.onCounted = onCounted;
+		timer = new Timer(DELAY, e -> start());
+		timer.setRepeats(false);
+	}
+
+	/* Requests a count of the document, to be called on the Event Dispatch Thread */
+	void schedule() {
+		long now = System.currentTimeMillis();
+		if (!timer.isRunning()) {
+			firstRequest = now;
+			timer.restart();
+		} else if (now - firstRequest < MAX_DELAY) {
+			timer.restart();
+		}
+	}
+
+	/* Stops the requested count and the count in progress, for a document that is replaced.
+	 * To be called on the Event Dispatch Thread */
+	void stop() {
+		timer.stop();
+		numRequests++;
+		if (task != null) {
+			task.cancel(false);
+		}
+	}
+
+	// Replaces the count in progress by a count of the current text. The count in progress is not
+	// interrupted, which would close the file its text is read from, it stops before its next chunk.
+	private void start() {
+		int request = ++numRequests;
+		if (task != null) {
+			task.cancel(false);
+		}
+		task = EXECUTOR.submit(() -> count(request));
+	}
+
+	// Indexes a snapshot of the text chunk by chunk, a chunk is read where the text is stored
+	private void count(int request) {
+		PieceTableContent.Snapshot[] snapshot = new PieceTableContent.Snapshot[1];
+		int[] version = new int[1], length = new int[1];
+		long start = CountMetrics.start();
+
+		document.render(() -> {
+			version[0] = document.getVersion();
+			length[0] = document.getLength();
+			snapshot[0] = document.snapshot();
+		});
+		CharSequence text = snapshot[0].text();
+		ReadabilityIndex index = new ReadabilityIndex("", document.getRules());
+		for (int offset = 0; offset < length[0]; offset += CHUNK) {
+			if (request != numRequests) {
+				return;  // a newer count has been requested
+			}
+			// the segment cut by the end of the previous chunk is indexed again with this one
+			index.update(text, offset, 0, Math.min(CHUNK, length[0] - offset));
+		}
+		PartialCount count = index.count();
+		CountMetrics.COUNT.stop(start);
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(count.getNumCharacters());
+		SwingUtilities.invokeLater(() -> {
+			if (document.setCounts(index, version[0])) {
+				onCounted.run();
+			}
+		});
+	}
+}
@@ -0,0 +1,373 @@
+package gui;
+
+import java.util.ArrayList;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Segment;
+import document.CountMetrics;
+import document.CountingRules;
+import document.PartialCount;
+import document.ReadabilityIndex;
+import document.TextCounter;
+
+/**
+ * A plain text document that keeps the number of characters, syllables, words and
+ * sentences of its text up to date while it is edited.
+ * Each insertion or removal only re-counts the words around the changed offsets,
+ * from the previous separator to the next one, and adjusts the totals by the difference.
+ * The cost of an edit does not depend on the size of the document.
+ * An edit larger than LARGE_EDIT characters, such as opening a file or pasting a large
+ * block, is not counted while the document is locked: the counts become stale until
+ * they are replaced by a full count done in the background, see BackgroundCounter.
+ * The text is stored in a PieceTableContent: a document opened from a file only reads
+ * the parts of the file that are shown or counted, and the text can be counted from a
+ * snapshot without locking the document. The text of a large file is appended as it is
+ * read, with the counts of the text read so far, see FileLoader.
+ * The text is counted with the rules of the document, as the batch mode and the server do.
+ * The sentences of the text are kept in a ReadabilityIndex, which answers the counts and
+ * readability scores of any range, such as the selection or the paragraph under the caret.
+ * A small edit updates the sentences around it. After a large edit, or once a file is
+ * appended, the index is built again by the next count of the whole text, see BackgroundCounter.
+ *
+ * @author Mickael Grivolat
+ */
+
+class CountingDocument extends PlainDocument {
+
+	private static final long serialVersionUID = 1L;
+	private static final int WINDOW = 64;  // number of characters read at a time around an edit
+	private static final int LARGE_EDIT = 1 << 16;  // number of characters above which an edit is not counted
+
+	private long numSyllables, numWords;
+	private long numTerminators;  // The number of end of sentence punctuation sequences
+	private boolean endsWithWord;  // The last word is not followed by an end of sentence punctuation
+	private transient Segment segment = new Segment();
+	private int version;  // The number of edits made to the document
+	private boolean stale;  // The counts are not up to date with the text
+	private final transient PieceTableContent content;
+	private final transient CountingRules rules;
+	// counts the region around each edit, the counters of TextCounter.forThread are left to the callers
+	private final transient TextCounter regionCounter;
+	private transient ReadabilityIndex index;  // the sentences of the text, null until it is counted as a whole
+
+	/* Creates an empty document */
+	CountingDocument() {
+		this(new PieceTableContent(), CountingRules.ENGLISH);
+	}
+
+	/* Creates an empty document counted with the given rules */
+	CountingDocument(CountingRules rules) {
+		this(new PieceTableContent(), rules);
+	}
+
+	/* Creates a document with the text of the content, its lines are found and its text counted at once */
+	CountingDocument(PieceTableContent content, CountingRules rules) {
+		super(content);
+		this.content = content;
+		this.rules = rules;
+		regionCounter = new TextCounter(rules);
+		if (getLength() > 0) {
+			load();
+		} else {
+			index = new ReadabilityIndex("", rules);
+		}
+	}
+
+	// get methods
+	public long getNumCharacters() {
+		return getLength();
+	}
+
+	public long getNumSyllables() {
+		return numSyllables;
+	}
+
+	public long getNumWords() {
+		return numWords;
+	}
+
+	/* The last words form a sentence even if they don't end with a punctuation mark */
+	public long getNumSentences() {
+		return endsWithWord ? numTerminators + 1 : numTerminators;
+	}
+
+	/* Returns true if the counts are not up to date and the text has to be counted again */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/* Returns the rules the text is counted with */
+	CountingRules getRules() {
+		return rules;
+	}
+
+	/* Returns the number of edits made to the document, read it while the document is locked */
+	int getVersion() {
+		return version;
+	}
+
+	/* Closes the file the document was opened from, once the document is no longer shown, read nor saved */
+	void close() {
+		content.close();
+	}
+
+	/* Returns the text as it is now, that can be read after the document is unlocked */
+	PieceTableContent.Snapshot snapshot() {
+		return content.snapshot();
+	}
+
+	/* Returns the counts of the text from start (inclusive) to end (exclusive), from the index of its
+	 * sentences, or null if the text is not indexed until its next count as a whole */
+	PartialCount countRange(int start, int end) {
+		readLock();
+		try {
+			return index == null ? null : index.count(content.snapshot().text(), start, end);
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/* Replaces the counts and the index by those of the whole text, unless the text was edited
+	 * since the given version was indexed. Returns true if they were replaced. */
+	boolean setCounts(ReadabilityIndex counted, int countedVersion) {
+		writeLock();
+		try {
+			if (countedVersion != version) {
+				return false;
+			}
+			PartialCount count = counted.count();
+			installCounts(count.getNumSyllables(), count.getNumWords(), count.getNumSentences());
+			index = counted;
+			return true;
+		} catch (BadLocationException e) {
+			throw new IllegalStateException("Document cannot be counted", e);
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	// Replaces the counts by the counts of the whole text
+	private void installCounts(long syllables, long words, long sentences) throws BadLocationException {
+		endsWithWord = endsWithWord();
+		numSyllables = syllables;
+		numWords = words;
+		numTerminators = endsWithWord ? sentences - 1 : sentences;
+		stale = false;
+	}
+
+	/* Appends the next n characters of the file of the content, that were read, whose newlines are at
+	 * the given offsets in the text, and replaces the counts by the given counts of the whole text.
+	 * The text must only have been changed by appending the file. The views are told of the insertion. */
+	void append(int n, int[] newlines, int numNewlines, TextCounter counts) {
+		writeLock();
+		try {
+			int offset = getLength();
+			BranchElement lineMap = (BranchElement) getDefaultRootElement();
+			int index = lineMap.getElementCount() - 1;
+			Element last = lineMap.getElement(index);
+			// the last line is read before the insertion moves its start if it is empty
+			int lineStart = last.getStartOffset();
+			content.append(n);
+			Element[] lines = new Element[numNewlines + 1];
+			for (int i = 0; i < numNewlines; i++) {
+				lines[i] = createLeafElement(lineMap, null, lineStart, newlines[i] + 1);
+				lineStart = newlines[i] + 1;
+			}
+			lines[numNewlines] = createLeafElement(lineMap, null, lineStart, offset + n + 1);
+			DefaultDocumentEvent event = new DefaultDocumentEvent(offset, n, DocumentEvent.EventType.INSERT);
+			lineMap.replace(index, 1, lines);
+			event.addEdit(new ElementEdit(lineMap, index, new Element[] { last }, lines));
+			event.end();
+			version++;
+			installCounts(counts.getNumSyllables(), counts.getNumWords(), counts.getNumSentences());
+			this.index = null;  // indexed again once the file is loaded
+			fireInsertUpdate(event);
+		} catch (BadLocationException e) {
+			throw new IllegalStateException("Document cannot be counted", e);
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	/* Splits the text of a new document in lines and counts it, reading it a piece at a time.
+	 * The lines are built at once instead of through an insertion, which would copy the text. */
+	private void load() {
+		BranchElement lineMap = (BranchElement) getDefaultRootElement();
+		ArrayList<Element> lines = new ArrayList<Element>();
+		TextCounter counter = new TextCounter(rules);
+		Segment text = new Segment();
+		text.setPartialReturn(true);
+		int length = getLength(), lineStart = 0;
+		long start = CountMetrics.start();
+		try {
+			for (int offset = 0; offset < length; offset += text.count) {
+				getText(offset, length - offset, text);
+				counter.count(text.array, text.offset, text.count);
+				for (int i = 0; i < text.count; i++) {
+					if (text.array[text.offset + i] == '\n') {
+						lines.add(createLeafElement(lineMap, null, lineStart, offset + i + 1));
+						lineStart = offset + i + 1;
+					}
+				}
+			}
+			lines.add(createLeafElement(lineMap, null, lineStart, length + 1));
+			lineMap.replace(0, lineMap.getElementCount(), lines.toArray(new Element[lines.size()]));
+			counter.finish();
+			installCounts(counter.getNumSyllables(), counter.getNumWords(), counter.getNumSentences());
+			if (content.isLoaded()) {
+				index = new ReadabilityIndex(content.snapshot().text(), rules);
+			}
+		} catch (BadLocationException e) {
+			throw new IllegalStateException("Document cannot be counted", e);
+		}
+		CountMetrics.COUNT.stop(start);
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(length);
+	}
+
+	/* Called once the text is inserted: the region around the insertion is counted
+	 * without and with the new text */
+	@Override
+	protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+		super.insertUpdate(chng, attr);
+		version++;
+		if (stale || chng.getLength() > LARGE_EDIT) {
+			stale = true;
+			index = null;
+			return;
+		}
+		long time = CountMetrics.start();
+		try {
+			int offset = chng.getOffset(), end = offset + chng.getLength();
+			int start = regionStart(offset), stop = regionEnd(end);
+
+			// the counter is reused for both counts, a keystroke allocates no counter
+			regionCounter.reset();
+			count(regionCounter, start, offset);
+			count(regionCounter, end, stop);
+			add(regionCounter, -1);
+			regionCounter.reset();
+			count(regionCounter, start, stop);
+			add(regionCounter, 1);
+			endsWithWord = endsWithWord();
+			if (index != null) {
+				index.update(content.snapshot().text(), offset, 0, chng.getLength());
+			}
+			CountMetrics.EDIT.stop(time);
+		} catch (BadLocationException e) {
+			throw new IllegalStateException("Inserted text cannot be counted", e);
+		}
+	}
+
+	/* Called before the text is removed: the region around the removed text is counted
+	 * with and without it */
+	@Override
+	protected void removeUpdate(DefaultDocumentEvent chng) {
+		super.removeUpdate(chng);
+		version++;
+		if (stale || chng.getLength() > LARGE_EDIT) {
+			stale = true;
+			index = null;
+			return;
+		}
+		long time = CountMetrics.start();
+		try {
+			int offset = chng.getOffset(), end = offset + chng.getLength();
+			int start = regionStart(offset), stop = regionEnd(end);
+
+			regionCounter.reset();
+			count(regionCounter, start, stop);
+			add(regionCounter, -1);
+			regionCounter.reset();
+			count(regionCounter, start, offset);
+			count(regionCounter, end, stop);
+			add(regionCounter, 1);
+			CountMetrics.EDIT.stop(time);
+		} catch (BadLocationException e) {
+			throw new IllegalStateException("Removed text cannot be counted", e);
+		}
+	}
+
+	/* Called once the text is removed: the sentences around the removed text are indexed again */
+	@Override
+	protected void postRemoveUpdate(DefaultDocumentEvent chng) {
+		super.postRemoveUpdate(chng);
+		if (stale) {
+			return;
+		}
+		try {
+			if (index != null) {
+				index.update(content.snapshot().text(), chng.getOffset(), chng.getLength(), 0);
+			}
+			endsWithWord = endsWithWord();
+		} catch (BadLocationException e) {
+			throw new IllegalStateException("Document cannot be counted", e);
+		}
+	}
+
+	/* Adds (sign = 1) or subtracts (sign = -1) the counts of a region to the totals.
+	 * The region is delimited by separators, so the words and punctuation sequences it
+	 * contains are not shared with the rest of the text. */
+	private void add(TextCounter counter, int sign) {
+		boolean open = counter.hasOpenSentence();
+		counter.finish();
+		numSyllables += sign * counter.getNumSyllables();
+		numWords += sign * counter.getNumWords();
+		numTerminators += sign * (open ? counter.getNumSentences() - 1 : counter.getNumSentences());
+	}
+
+	// Feeds the text from start (inclusive) to end (exclusive) to the counter
+	private void count(TextCounter counter, int start, int end) throws BadLocationException {
+		if (end > start) {
+			getText(start, end - start, segment);
+			counter.count(segment.array, segment.offset, segment.count);
+		}
+	}
+
+	// Returns the offset following the last separator before the given offset
+	private int regionStart(int offset) throws BadLocationException {
+		while (offset > 0) {
+			int len = Math.min(offset, WINDOW);
+			getText(offset - len, len, segment);
+			for (int i = segment.offset + segment.count - 1; i >= segment.offset; i--, offset--) {
+				if (rules.isSeparator(segment.array[i])) {
+					return offset;
+				}
+			}
+		}
+		return 0;
+	}
+
+	// Returns the offset of the first separator from the given offset
+	private int regionEnd(int offset) throws BadLocationException {
+		int length = getLength();
+		while (offset < length) {
+			getText(offset, Math.min(length - offset, WINDOW), segment);
+			for (int i = segment.offset; i < segment.offset + segment.count; i++, offset++) {
+				if (rules.isSeparator(segment.array[i])) {
+					return offset;
+				}
+			}
+		}
+		return length;
+	}
+
+	// Returns true if the last letter or punctuation of the text is a letter
+	private boolean endsWithWord() throws BadLocationException {
+		int offset = getLength();
+		while (offset > 0) {
+			int len = Math.min(offset, WINDOW);
+			getText(offset - len, len, segment);
+			for (int i = segment.offset + segment.count - 1; i >= segment.offset; i--) {
+				if (!rules.isSeparator(segment.array[i])) {
+					return rules.isLetter(segment.array[i]);
+				}
+			}
+			offset -= len;
+		}
+		return false;
+	}
+}
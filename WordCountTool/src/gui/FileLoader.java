@@ -0,0 +1,148 @@
+package gui;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Segment;
+import document.CountMetrics;
+import document.TextCounter;
+
+/**
+ * Reads the rest of a large file on a background thread, once the CountingDocument opened
+ * from its first blocks is shown, so that the first screenful of the file is displayed at once.
+ * The file is read CHUNK bytes at a time and each chunk is decoded once: its characters are
+ * counted after the text read before it and its newlines are found, then it is appended to
+ * the document on the Event Dispatch Thread with the counts of the text read so far, and the
+ * share of the file read is reported. The document must not be edited until it is loaded.
+ *
+ * @author Mickael Grivolat
+ */
+
+class FileLoader {
+
+	private static final int CHUNK = 1 << 22;  // number of bytes read at a time
+
+	// the thread that reads the files, shared by the documents opened one after the other
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Word Count Loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final CountingDocument document;
+	private final PieceTableContent content;
+	private final IntConsumer onProgress;
+	private final Consumer<Exception> onLoaded;
+	private Future<?> task;
+	private volatile boolean cancelled;
+
+	/* Loads the content of the given document: onProgress is given the percentage of the file read,
+	 * and onLoaded null once it is loaded or the error that stopped it, on the Event Dispatch Thread */
+	FileLoader(CountingDocument document, PieceTableContent content, IntConsumer onProgress,
+			Consumer<Exception> onLoaded) {
+		this.document = document;
+		this.content = content;
+		this.onProgress = onProgress;
+		this.onLoaded = onLoaded;
+	}
+
+	/* Starts reading the file */
+	void start() {
+		task = EXECUTOR.submit(this::load);
+	}
+
+	/* Stops reading the file, the document keeps the text loaded so far and no callback is run anymore.
+	 * The loading is not interrupted, which would close the file, it stops before its next chunk. */
+	void cancel() {
+		cancelled = true;
+		if (task != null) {
+			task.cancel(false);
+		}
+	}
+
+	// Reads the file chunk by chunk, the text already in the document is counted first
+	private void load() {
+		long start = CountMetrics.start();
+		PieceTableContent.Snapshot[] snapshot = new PieceTableContent.Snapshot[1];
+		int[] length = new int[1];
+		document.render(() -> {
+			length[0] = document.getLength();
+			snapshot[0] = document.snapshot();
+		});
+		TextCounter counter = new TextCounter(document.getRules());
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+		for (int offset = 0; offset < length[0]; offset += segment.count) {
+			snapshot[0].getChars(offset, length[0] - offset, segment);
+			counter.count(segment.array, segment.offset, segment.count);
+		}
+
+		try {
+			int offset = length[0];
+			while (content.getBytesRead() < content.getFileSize()) {
+				if (cancelled) {
+					return;
+				}
+				Newlines newlines = new Newlines(offset);
+				int n = content.read(CHUNK, chars -> {
+					counter.count(chars.array, chars.offset, chars.count);
+					newlines.find(chars);
+				});
+				TextCounter counts = counter.snapshot();
+				int percent = (int) (content.getBytesRead() * 100 / content.getFileSize());
+				run(() -> {
+					document.append(n, newlines.offsets, newlines.size, counts);
+					onProgress.accept(percent);
+				});
+				offset += n;
+			}
+		} catch (IOException | IllegalStateException e) {
+			// the file changed or could not be read, the text read so far can be edited
+			if (!cancelled) {
+				run(() -> onLoaded.accept(e));
+			}
+			return;
+		}
+		CountMetrics.COUNT.stop(start);
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(counter.getNumCharacters());
+		run(() -> onLoaded.accept(null));
+	}
+
+	// Runs the action on the Event Dispatch Thread, unless the loading is cancelled by then
+	private void run(Runnable action) {
+		SwingUtilities.invokeLater(() -> {
+			if (!cancelled) {
+				action.run();
+			}
+		});
+	}
+
+	/* The offsets of the newlines of a chunk in the text */
+	private static final class Newlines {
+		int[] offsets = new int[1024];
+		int size;
+		private int offset;  // the offset of the next characters
+
+		Newlines(int offset) {
+			this.offset = offset;
+		}
+
+		void find(Segment chars) {
+			for (int i = 0; i < chars.count; i++) {
+				if (chars.array[chars.offset + i] == '\n') {
+					if (size == offsets.length) {
+						offsets = Arrays.copyOf(offsets, size * 2);
+					}
+					offsets[size++] = offset + i;
+				}
+			}
+			offset += chars.count;
+		}
+	}
+}
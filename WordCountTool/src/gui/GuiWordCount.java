@@ -6,9 +6,12 @@
  * - Counts number of syllables
  * - Counts number of words
  * - Counts number of sentences
+ * - Shows the readability of the selection and of the paragraph under the caret
+ * - Shows the most frequent words and pairs of words of the text
  * - Edit text through the user interface
- * - Open a text file
+ * - Open a text file, a large file is shown at once and read in the background
  * - Save a text file
+ * - Counts with the English rules, or with the French rules given --rules fr, as the batch mode does
  */
 package gui;
 
@@ -18,12 +21,19 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import document.Document;
+import javax.swing.text.Element;
+import document.CountMetrics;
+import document.CountingRules;
 import document.FileSelection;
+import document.PartialCount;
 import document.ReadWriteFile;
+import document.WordFrequency;
 
 /**
  * @author Mickael Grivolat
@@ -35,14 +45,23 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 	private static final long serialVersionUID = 1L;
 	private static ImageIcon logo;
 	private static JFrame frame;
-	private static JPanel panel1, panel2, panel3, panel4, panel5, blank1, blank2, blank3, blank4;
+	private static JPanel panel1, panel2, panel3, panel4, panel5, blank1, blank2, blank3, blank4, blank5, blank6;
 	private static JPopupMenu popup;
-	private static JMenuItem copy, paste;
+	private static JMenuItem copy, paste, frequent;
 	private static JTextArea textArea1;
+	private static CountingRules rules = CountingRules.ENGLISH;  // the rules the documents are counted with
+	private static CountingDocument textDocument;
+	private static CountingDocument savedDocument;  // the document being saved, its file is closed once saved
+	private static DocumentListener documentListener;
+	private static BackgroundCounter backgroundCounter;
+	private static FileLoader fileLoader;
+	private static JProgressBar progressBar;
 	private static JScrollPane scrollPane;
-	private static JLabel label1, label2, label3, label4;
+	private static JLabel label1, label2, label3, label4, label5, label6;
 	private static JButton button1, button2;
 	private static final int frameW = 800, frameH = 600;
+	private static final int FREQUENT = 10;  // number of most frequent words and pairs of words shown
+	private static final int FREQUENT_ENTRIES = 1 << 20;  // number of distinct words and pairs of words counted
 	
 	
 	GuiWordCount() {
@@ -74,6 +93,8 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		blank2 = new JPanel();
 		blank3 = new JPanel();
 		blank4 = new JPanel();
+		blank5 = new JPanel();
+		blank6 = new JPanel();
 
 		panel1.setBackground(Color.white);
 		panel2.setBackground(new Color(179,255,242)); //Color = Celeste
@@ -84,6 +105,8 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		blank2.setBackground(new Color(179,255,242));
 		blank3.setBackground(new Color(179,255,242));
 		blank4.setBackground(new Color(179,255,242));
+		blank5.setBackground(new Color(179,255,242));
+		blank6.setBackground(new Color(179,255,242));
 		// central panel (panel1) is dynamic, no need to set size
 		panel2.setPreferredSize(new Dimension(200, 200)); 
 		panel3.setPreferredSize(new Dimension(50, 50));
@@ -93,6 +116,8 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		blank2.setPreferredSize(new Dimension(250, 0));	// blank panel, height = 0 pixel
 		blank3.setPreferredSize(new Dimension(250, 0));	// blank panel, height = 0 pixel
 		blank4.setPreferredSize(new Dimension(250, 0));	// blank panel, height = 0 pixel
+		blank5.setPreferredSize(new Dimension(250, 0));	// blank panel, height = 0 pixel
+		blank6.setPreferredSize(new Dimension(250, 0));	// blank panel, height = 0 pixel
 
 		/* Layouts setup. Right panel has blank panels to create a line break.
 		 * So, the layout gap is accounted doubled twice (height) */
@@ -105,8 +130,15 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		frame.add(panel5, BorderLayout.SOUTH);
 
 		// Text field for user input. Set line wrap and word wrap for better visuals
-		textArea1 = new JTextArea();
-		textArea1.getDocument().addDocumentListener(addDocumentListener1());
+		// The document of the text area keeps the counts up to date as the text is edited
+		textDocument = new CountingDocument(rules);
+		textArea1 = new JTextArea(textDocument);
+		documentListener = addDocumentListener1();
+		textDocument.addDocumentListener(documentListener);
+		// Large edits are counted in the background, the labels are updated once counted
+		backgroundCounter = new BackgroundCounter(textDocument, this::showCounts);
+		// The readability of the selection and of the paragraph follows the caret
+		textArea1.addCaretListener(e -> showReadability());
 		textArea1.addMouseListener(this);
 		textArea1.setLineWrap(true);
 		textArea1.setWrapStyleWord(true);
@@ -123,10 +155,15 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		label2 = new JLabel("Syllables: 0");
 		label3 = new JLabel("Words: 0");
 		label4 = new JLabel("Sentences: 0");
+		// Flesch reading ease and Flesch-Kincaid grade of the selection and of the paragraph under the caret
+		label5 = new JLabel("Selection: -");
+		label6 = new JLabel("Paragraph: -");
 		label1.setFont(new Font("Dialogue", Font.BOLD, 13));
 		label2.setFont(new Font("Dialogue", Font.BOLD, 13));
 		label3.setFont(new Font("Dialogue", Font.BOLD, 13));
 		label4.setFont(new Font("Dialogue", Font.BOLD, 13));
+		label5.setFont(new Font("Dialogue", Font.PLAIN, 13));
+		label6.setFont(new Font("Dialogue", Font.PLAIN, 13));
 		
 		// Button to open or save a file
 		button1 = new JButton("Open File");
@@ -135,6 +172,12 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		button2 = new JButton("Save File");
 		button2.setFont(new Font("Dialogue", Font.BOLD, 13));
 		button2.addActionListener(this);
+		
+		// Progress of the file being read, only shown while a large file is read
+		progressBar = new JProgressBar(0, 100);
+		progressBar.setStringPainted(true);
+		progressBar.setPreferredSize(new Dimension(140, 20));
+		progressBar.setVisible(false);
 
 		/* Right panel has blank panels to create a line break */
 		panel2.add(label1);
@@ -145,17 +188,26 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		panel2.add(blank3);
 		panel2.add(label4);
 		panel2.add(blank4);
+		panel2.add(label5);
+		panel2.add(blank5);
+		panel2.add(label6);
+		panel2.add(blank6);
 		panel2.add(button1);
 		panel2.add(button2);
+		panel2.add(progressBar);
 		
 		// add menu items to popup
 		popup = new JPopupMenu();
 		copy = new JMenuItem("Copy");
 		paste = new JMenuItem("Paste");
+		frequent = new JMenuItem("Most Frequent Words");
 		popup.add(copy);
 		popup.add(paste);
+		popup.addSeparator();
+		popup.add(frequent);
 		copy.addActionListener(this);
 		paste.addActionListener(this);
+		frequent.addActionListener(this);
 		
 		// repaint the frame for newly added components
 		frame.revalidate();
@@ -171,32 +223,65 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 		if(e.getSource().equals(paste)) {
 			clipboardPaste();
 		}
-		// Case Read File: create an instance of file picker and assign the content to the text area
+		if(e.getSource().equals(frequent)) {
+			countFrequentWords();
+		}
+		// Case Read File: create an instance of file picker and show the file in a new document
+		// The file is read when its text is shown or counted, it is not loaded in memory
+		// Only its first blocks are read at once, the others are read in the background
 		if(e.getSource().equals(button1)) {
 			FileSelection selection = new FileSelection(false);
+			if (selection.getFile() == null) {
+				return;
+			}
 			try {
-				ReadWriteFile file = new ReadWriteFile(selection.getFile().toString());
-				textArea1.setText(file.getContent());
-			} catch (IOException e1) {
-				e1.printStackTrace();
+				PieceTableContent content = PieceTableContent.open(selection.getFile());
+				// a part of the file that cannot be read again is shown as replacement characters
+				content.setFailureHandler(error -> SwingUtilities.invokeLater(() -> showError(error)));
+				stopLoading();
+				setDocument(new CountingDocument(content, rules));
+				if (!content.isLoaded()) {
+					startLoading(content);
+				}
+			} catch (IOException | IllegalStateException e1) {
+				showError(e1);
 			}
 		}
 		// Case Save File: create an instance of file picker and save the content to a file
+		// The file is written in the background, the button is enabled again once it is saved
 		if(e.getSource().equals(button2)) {
 			FileSelection selection = new FileSelection(true);
+			if (selection.getFile() == null) {
+				return;
+			}
 			try {
 				ReadWriteFile file = new ReadWriteFile(selection.getFile(), true);
-				file.write(textArea1.getText(), false);
+				button2.setEnabled(false);
+				savedDocument = textDocument;
+				// the text is written from a snapshot, piece by piece, and can be edited meanwhile
+				file.writeAsync(textDocument.snapshot().reader(), error -> SwingUtilities.invokeLater(() -> {
+					// another file may have been opened meanwhile, the file of the saved text is closed once written
+					if (savedDocument != textDocument) {
+						savedDocument.close();
+					}
+					savedDocument = null;
+					button2.setEnabled(true);
+					if (error != null) {
+						showError(error);
+					}
+				}));
 				
 			} catch (IOException e1) {
-				e1.printStackTrace();
+				showError(e1);
 			}
 		}
 	}
 	
 	/* Event manager for textArea1 display the number of char, syllables, words and sentences
 	 * in the current text area
-	 * Document Listener is called when anything is typed or deleted in a given text field
+	 * Document Listener is called when anything is typed or deleted in a given text field,
+	 * once the document has updated its counts for the edited region only.
+	 * After a large edit the counts are stale and the text is counted in the background.
 	 */
 	private DocumentListener addDocumentListener1() {
 		 return new DocumentListener() {
@@ -210,15 +295,149 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 			}
 			@Override
 			public void changedUpdate(DocumentEvent e) {
-				Document docText = new Document(textArea1.getText());
-				label1.setText("Characters: " + docText.getNumCharacters());
-				label2.setText("Syllables: " + docText.getNumSyllables());
-				label3.setText("Words: " + docText.getNumWords());
-				label4.setText("Sentences: " + docText.getNumSentences());
+				if (textDocument.isStale()) {
+					backgroundCounter.schedule();
+				} else {
+					showCounts();
+				}
 			}
 		 };
 	}
 	
+	/* Replaces the document of the text area, its counts are kept up to date in the same way.
+	 * The previous document is no longer counted, and its file is closed unless it is being saved */
+	private void setDocument(CountingDocument document) {
+		CountingDocument previous = textDocument;
+		previous.removeDocumentListener(documentListener);
+		backgroundCounter.stop();
+		textDocument = document;
+		textDocument.addDocumentListener(documentListener);
+		backgroundCounter = new BackgroundCounter(textDocument, this::showCounts);
+		textArea1.setDocument(textDocument);
+		if (previous != savedDocument) {
+			previous.close();
+		}
+		showCounts();
+	}
+	
+	/* Reads the rest of the file of the document in the background, the counts are shown as it is read.
+	 * The text cannot be edited nor saved, nor its words counted, until it is loaded */
+	private void startLoading(PieceTableContent content) {
+		textArea1.setEditable(false);
+		button2.setEnabled(false);
+		frequent.setEnabled(false);
+		progressBar.setValue(0);
+		progressBar.setVisible(true);
+		fileLoader = new FileLoader(textDocument, content, progressBar::setValue, error -> {
+			stopLoading();
+			// the sentences of the text are indexed once it is loaded
+			showReadability();
+			if (error != null) {
+				showError(error);
+			}
+		});
+		fileLoader.start();
+	}
+	
+	// Stops reading the file of the previous document, if it is still read
+	private void stopLoading() {
+		if (fileLoader == null) {
+			return;
+		}
+		fileLoader.cancel();
+		fileLoader = null;
+		progressBar.setVisible(false);
+		textArea1.setEditable(true);
+		button2.setEnabled(true);
+		frequent.setEnabled(true);
+	}
+	
+	// Counts the error and tells the user, with the cause of the failure
+	private void showError(Exception e) {
+		CountMetrics.ERRORS.increment();
+		String message = e.getMessage();
+		if (e.getCause() != null) {
+			message += "\n" + e.getCause();
+		}
+		JOptionPane.showMessageDialog(frame, message, "Word Count", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	// Displays the counts of the document in the labels
+	private void showCounts() {
+		label1.setText("Characters: " + textDocument.getNumCharacters());
+		label2.setText("Syllables: " + textDocument.getNumSyllables());
+		label3.setText("Words: " + textDocument.getNumWords());
+		label4.setText("Sentences: " + textDocument.getNumSentences());
+		showReadability();
+	}
+	
+	/* Displays the readability of the selection and of the paragraph under the caret, from the index of
+	 * the sentences of the document: only the sentences cut by the ends of a range are counted.
+	 * If the text is not indexed, it is indexed in the background unless it is being loaded */
+	private void showReadability() {
+		if (label5 == null) {
+			return;
+		}
+		int dot = textArea1.getCaret().getDot(), mark = textArea1.getCaret().getMark();
+		Element paragraph = textDocument.getParagraphElement(dot);
+		PartialCount selection = textDocument.countRange(Math.min(dot, mark), Math.max(dot, mark));
+		PartialCount current = textDocument.countRange(paragraph.getStartOffset(),
+				Math.min(paragraph.getEndOffset(), textDocument.getLength()));
+		if (current == null && fileLoader == null) {
+			backgroundCounter.schedule();
+		}
+		label5.setText("Selection: " + readability(dot == mark ? null : selection));
+		label6.setText("Paragraph: " + readability(current));
+	}
+	
+	// Returns the Flesch reading ease and the Flesch-Kincaid grade of the counts, - if they have no word
+	private static String readability(PartialCount count) {
+		if (count == null || count.getNumWords() == 0) {
+			return "-";
+		}
+		return String.format("%.0f, grade %.1f", count.getFleschScore(), count.getFleschKincaidGrade());
+	}
+	
+	/* Counts the words and the pairs of words of a snapshot of the text in the background,
+	 * with the rules of the document, and displays the most frequent ones once counted.
+	 * The text can be edited meanwhile */
+	private void countFrequentWords() {
+		PieceTableContent.Snapshot snapshot = textDocument.snapshot();
+		CountingRules documentRules = textDocument.getRules();
+		CompletableFuture.runAsync(() -> {
+			WordFrequency frequency = new WordFrequency(2, FREQUENT_ENTRIES, documentRules);
+			char[] buffer = new char[1 << 13];
+			try (Reader reader = snapshot.reader()) {
+				for (int n; (n = reader.read(buffer, 0, buffer.length)) >= 0;) {
+					frequency.count(buffer, 0, n);
+				}
+				frequency.finish();
+				SwingUtilities.invokeLater(() -> showFrequentWords(frequency));
+			} catch (IOException e) {
+				SwingUtilities.invokeLater(() -> showError(e));
+			}
+		});
+	}
+	
+	// Displays the most frequent words and pairs of words with their number of occurrences
+	private void showFrequentWords(WordFrequency frequency) {
+		StringBuilder message = new StringBuilder();
+		appendEntries(message, "Words", frequency.topWords(FREQUENT));
+		appendEntries(message, "Pairs of words", frequency.topBigrams(FREQUENT));
+		if (frequency.getNumDropped() > 0) {
+			message.append(frequency.getNumDropped()).append(" words and pairs of words not counted, too many distinct ones\n");
+		}
+		JOptionPane.showMessageDialog(frame, message.toString(), "Most Frequent Words", JOptionPane.INFORMATION_MESSAGE);
+	}
+	
+	private static void appendEntries(StringBuilder message, String title, List<WordFrequency.Entry> entries) {
+		message.append(title).append(entries.isEmpty() ? ": -\n" : ":\n");
+		for (WordFrequency.Entry entry : entries) {
+			message.append("   ").append(entry.getText()).append("   ").append(entry.getCount()).append('\n');
+		}
+		message.append('\n');
+	}
+	
 	// Event manager for mouse actions
 	@Override
 	public void mouseClicked(MouseEvent e) {
@@ -256,6 +475,9 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 	}
 	
 	private void clipboardPaste() {
+		if (!textArea1.isEditable()) {
+			return;
+		}
 		Clipboard systemClipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
 		if (systemClipboard.isDataFlavorAvailable(DataFlavor.stringFlavor))
         {
@@ -270,6 +492,15 @@ public class GuiWordCount extends JFrame implements ActionListener, MouseListene
 	}
 	
 	public static void main(String[] args) {
+		for (int i = 0; i + 1 < args.length; i++) {
+			if (args[i].equals("--rules")) {
+				rules = CountingRules.forName(args[++i]);
+			}
+		}
+		// with -Dwordcount.metrics=true the metrics can be followed in a JMX console
+		if (CountMetrics.getInstance().isEnabled()) {
+			CountMetrics.register();
+		}
 		new GuiWordCount();
 		
 	}
@@ -0,0 +1,1101 @@
+package gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import document.CountMetrics;
+import document.ReadWriteFile;
+
+/**
+ * The text of a CountingDocument, stored as a piece table: a sequence of pieces, each one
+ * a range of characters of a buffer that never changes once written. The buffers are the
+ * file the text was opened from, read and decoded a block at a time when its characters
+ * are needed, and the chunks that the inserted text is appended to. Opening a file only
+ * keeps the offsets of its blocks in memory, whatever its size. The blocks of a large file
+ * are found as the file is read: the content first holds the text of its first blocks, and
+ * the text of the next ones is appended as they are read, see FileLoader.
+ * A block of the file that cannot be read again, because the file changed or cannot be
+ * read anymore, reads as replacement characters: the failure never escapes to Swing, it is
+ * passed to the failure handler, and a snapshot that holds such a block cannot be saved.
+ *
+ * The pieces are the nodes of a treap, a binary tree ordered by offset and balanced by
+ * random priorities, so an insertion or a removal costs O(log n) in the number of pieces.
+ * Nodes are never changed: an edit copies the nodes on the paths to the changed offsets.
+ * A snapshot of the text is then a reference to the root, that another thread can read
+ * without locking the document and without copying the text.
+ *
+ * The positions are kept sorted by offset in blocks that each have an offset of their own:
+ * an edit moves the positions of one block and the offset of the following blocks.
+ * Positions created at the same offset without edit between them are shared.
+ * Positions that are no longer used are removed once garbage collected.
+ *
+ * @author Mickael Grivolat
+ */
+
+class PieceTableContent implements AbstractDocument.Content {
+
+	private static final int CHUNK = 1 << 14;  // number of characters of a chunk of inserted text
+	private static final int MARK_BLOCK = 256;  // number of positions of a block, doubled before it is split
+	private static final int FIRST_BYTES = 1 << 16;  // number of bytes of a file read when it is opened
+	private static final char[] NO_CHARS = new char[0];
+
+	private Piece root;
+	private final FileText file;  // the file the text was opened from, null if none
+	private int fileLength;  // the number of characters of the file in the text
+	private char[] chunk = new char[CHUNK];  // the chunk the next inserted text is appended to
+	private int chunkUsed;
+
+	private final ArrayList<MarkBlock> blocks = new ArrayList<MarkBlock>();
+	private final ReferenceQueue<StickyPosition> released = new ReferenceQueue<StickyPosition>();
+	private int numMarks, numReleased;
+	private StickyPosition lastPosition;  // the last position created, if there was no edit since
+
+	/* Creates an empty content, made of the newline that ends any document */
+	PieceTableContent() {
+		file = null;
+		root = newText("\n");
+	}
+
+	// Creates a content with the text of the blocks of the file read so far
+	private PieceTableContent(FileText file) {
+		this.file = file;
+		fileLength = file.length();
+		root = merge(new Piece(file, 0, fileLength), newText("\n"));
+	}
+
+	// Creates a content with the given text, which ends with a newline
+	private PieceTableContent(String text) {
+		file = null;
+		root = newText(text.endsWith("\n") ? text : text + "\n");
+	}
+
+	/* Opens a UTF-8 file, whose characters are only read when they are needed. Only the text of
+	 * the first FIRST_BYTES bytes is in the content, until the next ones are read and appended.
+	 * A compressed file is decompressed in memory, its characters are not where they are stored.
+	 * The file must not be changed while the content is in use. */
+	static PieceTableContent open(File f) throws IOException {
+		if (ReadWriteFile.isCompressed(f)) {
+			return new PieceTableContent(new ReadWriteFile(f).getContent());
+		}
+		FileText file = new FileText(f.toPath());
+		file.read(FIRST_BYTES, null);
+		return new PieceTableContent(file);
+	}
+
+	/* True if the whole text of the file the content was opened from is in the content */
+	synchronized boolean isLoaded() {
+		return file == null || file.isRead() && fileLength == file.length();
+	}
+
+	/* The size of the file the content was opened from, and the number of bytes of it read so far */
+	long getFileSize() {
+		return file == null ? 0 : file.size;
+	}
+
+	long getBytesRead() {
+		return file == null ? 0 : file.bytesRead();
+	}
+
+	/*
+	 * Reads about the given number of bytes more of the file, without locking the content, and
+	 * passes their characters to the reader, which must not keep the segment. Returns the number of
+	 * characters read, which are in the text once appended. To be called by one thread at a time.
+	 */
+	int read(long bytes, Consumer<Segment> reader) throws IOException {
+		return file.read(bytes, reader);
+	}
+
+	/* Closes the file the content was opened from, once its text is no longer shown, read nor saved:
+	 * the characters of the file that are not in memory can no longer be read */
+	void close() {
+		if (file != null) {
+			file.close();
+		}
+	}
+
+	/* Sets the handler given the first failure to read the file again, on the thread that reads it */
+	void setFailureHandler(Consumer<IOException> handler) {
+		if (file != null) {
+			file.onFailure = handler;
+		}
+	}
+
+	/* Appends the next n characters of the file that were read to the text, before its final newline.
+	 * The text must only have been changed by appending the file. */
+	synchronized void append(int n) {
+		if (n < 0 || fileLength + n > file.length() || fileLength != root.size - 1) {
+			throw new IllegalStateException("Invalid append: " + n);
+		}
+		if (n > 0) {
+			insert(fileLength, new Piece(file, fileLength, n));
+			fileLength += n;
+		}
+	}
+
+	@Override
+	public synchronized int length() {
+		return root.size;
+	}
+
+	@Override
+	public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+		if (where < 0 || where >= root.size) {
+			throw new BadLocationException("Invalid insert", root.size);
+		}
+		Piece text = newText(str);
+		insert(where, text);
+		return new Edit(where, text, true, null);
+	}
+
+	@Override
+	public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+		if (where < 0 || nitems < 0 || where + nitems >= root.size) {
+			throw new BadLocationException("Invalid remove", root.size + 1);
+		}
+		SavedPositions positions = savePositions(where, where + nitems);
+		return new Edit(where, removeRange(where, where + nitems), false, positions);
+	}
+
+	@Override
+	public synchronized String getString(int where, int len) throws BadLocationException {
+		Segment segment = new Segment();
+		getChars(where, len, segment);
+		return segment.toString();
+	}
+
+	@Override
+	public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+		if (where < 0 || len < 0 || where + len > root.size) {
+			throw new BadLocationException("Invalid location", root.size);
+		}
+		read(root, where, len, txt);
+	}
+
+	/* Returns the text as it is now, to be read while the content keeps being edited */
+	synchronized Snapshot snapshot() {
+		return new Snapshot(root, file);
+	}
+
+	@Override
+	public synchronized Position createPosition(int offset) throws BadLocationException {
+		if (offset < 0 || offset > root.size) {
+			throw new BadLocationException("Invalid position", offset);
+		}
+		// the end of a line is the start of the next one: positions at the same offset keep the
+		// same offset until they are moved by an edit, so without edit between them they are shared
+		if (lastPosition != null && lastPosition.getOffset() == offset) {
+			return lastPosition;
+		}
+		purge();
+		StickyPosition position = new StickyPosition();
+		lastPosition = position;
+		Mark mark = new Mark(position, released);
+		position.mark = mark;
+
+		if (blocks.isEmpty()) {
+			blocks.add(new MarkBlock(this, 0));
+		}
+		int b = blocks.size() - 1;
+		MarkBlock block = blocks.get(b);
+		int i = block.size;
+		// the positions of the lines of a new document are created in order, after the others
+		if (i > 0 && block.marks[i - 1].offset + block.delta > offset) {
+			b = findBlock(offset);
+			block = blocks.get(b);
+			i = block.find(offset);
+		}
+		mark.offset = offset - block.delta;
+		mark.block = block;
+		block.insert(i, mark);
+		numMarks++;
+		if (block.size == block.marks.length) {
+			blocks.add(b + 1, block.split());
+		}
+		return position;
+	}
+
+	/* The text of the content at some moment, that never changes */
+	static final class Snapshot {
+		private final Piece root;
+		private final FileText file;
+
+		private Snapshot(Piece root, FileText file) {
+			this.root = root;
+			this.file = file;
+		}
+
+		/* The number of characters, with the newline that ends any document */
+		int length() {
+			return root.size;
+		}
+
+		/* Reads the characters from where, all of them or, if the segment allows a partial
+		 * return, only those stored in one piece. The segment must not be changed. */
+		void getChars(int where, int len, Segment txt) {
+			if (where < 0 || len < 0 || where + len > root.size) {
+				throw new IndexOutOfBoundsException("Invalid location: " + where + " + " + len);
+			}
+			read(root, where, len, txt);
+		}
+
+		/* Returns the text, without the newline that ends any document, as a sequence read piece by
+		 * piece: reading it in order costs no more than reading the pieces. Not to be shared by threads */
+		CharSequence text() {
+			return new CharSequence() {
+				private final Segment segment = new Segment();
+				private int start, end;  // the offsets in the text of the characters of the segment
+
+				@Override
+				public int length() {
+					return root.size - 1;
+				}
+
+				@Override
+				public char charAt(int index) {
+					if (index < start || index >= end) {
+						if (index < 0 || index >= length()) {
+							throw new IndexOutOfBoundsException("Invalid location: " + index);
+						}
+						segment.setPartialReturn(true);
+						getChars(index, length() - index, segment);
+						start = index;
+						end = index + segment.count;
+					}
+					return segment.array[segment.offset + index - start];
+				}
+
+				@Override
+				public CharSequence subSequence(int from, int to) {
+					if (from < 0 || to < from || to > length()) {
+						throw new IndexOutOfBoundsException("Invalid location: " + from + " + " + (to - from));
+					}
+					Segment copy = new Segment();
+					getChars(from, to - from, copy);
+					return copy.toString();
+				}
+
+				@Override
+				public String toString() {
+					return subSequence(0, length()).toString();
+				}
+			};
+		}
+
+		/* Returns a reader of all the characters, with the newline that ends any document, that
+		 * copies them piece by piece: the text is never copied as a whole. The reader fails
+		 * if the text holds characters of the file that could not be read. */
+		Reader reader() {
+			return new Reader() {
+				private final Segment segment = new Segment();
+				private int offset;
+
+				@Override
+				public int read(char[] cbuf, int off, int len) throws IOException {
+					if (len == 0) {
+						return 0;
+					}
+					if (offset == root.size) {
+						return -1;
+					}
+					segment.setPartialReturn(true);
+					getChars(offset, Math.min(len, root.size - offset), segment);
+					if (file != null && file.failure != null) {
+						throw file.failure;
+					}
+					System.arraycopy(segment.array, segment.offset, cbuf, off, segment.count);
+					offset += segment.count;
+					return segment.count;
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	}
+
+	/* -------- The pieces -------- */
+
+	// Inserts the pieces of the text at the given offset, the offsets of the positions follow
+	private void insert(int where, Piece text) {
+		Piece[] split = split(root, where);
+		Piece last = last(split[0]);
+		if (text.size == text.length && last != null && last.follows(text)) {
+			// typing appends to the chunk just after the previous piece, which is extended instead
+			root = merge(extendLast(split[0], text.length), split[1]);
+		} else {
+			root = merge(merge(split[0], text), split[1]);
+		}
+		updateForInsert(where, text.size);
+	}
+
+	// Removes the text between the offsets and returns its pieces
+	private Piece removeRange(int start, int end) {
+		Piece[] head = split(root, start);
+		Piece[] tail = split(head[1], end - start);
+		root = merge(head[0], tail[1]);
+		updateForRemove(start, end - start);
+		return tail[0];
+	}
+
+	// Appends the string to the chunks and returns its pieces
+	private Piece newText(String str) {
+		int len = str.length();
+		if (len > CHUNK / 2) {
+			// a large text has its own chunk
+			return new Piece(str.toCharArray(), 0, len);
+		}
+		if (chunkUsed + len > chunk.length) {
+			chunk = new char[CHUNK];
+			chunkUsed = 0;
+		}
+		str.getChars(0, len, chunk, chunkUsed);
+		chunkUsed += len;
+		return new Piece(chunk, chunkUsed - len, len);
+	}
+
+	// Splits the tree in the text before and after the offset, cutting the piece that contains it
+	private static Piece[] split(Piece node, int offset) {
+		if (node == null) {
+			return new Piece[2];
+		}
+		int leftSize = size(node.left);
+		if (offset <= leftSize) {
+			Piece[] split = split(node.left, offset);
+			split[1] = node.with(split[1], node.right);
+			return split;
+		}
+		if (offset >= leftSize + node.length) {
+			Piece[] split = split(node.right, offset - leftSize - node.length);
+			split[0] = node.with(node.left, split[0]);
+			return split;
+		}
+		int cut = offset - leftSize;
+		return new Piece[] { node.cut(0, cut, node.left, null), node.cut(cut, node.length, null, node.right) };
+	}
+
+	// Returns the tree of the text of the first tree followed by the text of the second one
+	private static Piece merge(Piece first, Piece second) {
+		if (first == null) {
+			return second;
+		}
+		if (second == null) {
+			return first;
+		}
+		if (first.priority >= second.priority) {
+			return first.with(first.left, merge(first.right, second));
+		}
+		return second.with(merge(first, second.left), second.right);
+	}
+
+	// Returns the last piece of the tree
+	private static Piece last(Piece node) {
+		while (node != null && node.right != null) {
+			node = node.right;
+		}
+		return node;
+	}
+
+	// Returns the tree with n more characters at the end of its last piece
+	private static Piece extendLast(Piece node, int n) {
+		if (node.right == null) {
+			return node.cut(0, node.length + n, node.left, null);
+		}
+		return node.with(node.left, extendLast(node.right, n));
+	}
+
+	private static int size(Piece node) {
+		return node == null ? 0 : node.size;
+	}
+
+	// Reads the characters of the tree in the segment, without copying them if they are stored in one piece
+	private static void read(Piece node, int where, int len, Segment txt) {
+		if (len == 0) {
+			txt.array = NO_CHARS;
+			txt.offset = 0;
+			txt.count = 0;
+			return;
+		}
+		// find the piece that contains the first character
+		int offset = where;
+		Piece piece = node;
+		while (true) {
+			int leftSize = size(piece.left);
+			if (offset < leftSize) {
+				piece = piece.left;
+			} else if (offset >= leftSize + piece.length && piece.right != null) {
+				offset -= leftSize + piece.length;
+				piece = piece.right;
+			} else {
+				offset -= leftSize;
+				break;
+			}
+		}
+		piece.read(offset, Math.min(len, piece.length - offset), txt);
+		if (txt.count < len && !txt.isPartialReturn()) {
+			char[] chars = new char[len];
+			copy(node, where, len, chars, 0);
+			txt.array = chars;
+			txt.offset = 0;
+			txt.count = len;
+		}
+	}
+
+	// Copies the characters from where in the array
+	private static void copy(Piece node, int where, int len, char[] dst, int dstOff) {
+		while (node != null && len > 0) {
+			int leftSize = size(node.left);
+			if (where < leftSize) {
+				int n = Math.min(len, leftSize - where);
+				copy(node.left, where, n, dst, dstOff);
+				where += n;
+				len -= n;
+				dstOff += n;
+			}
+			if (len > 0 && where < leftSize + node.length) {
+				int n = Math.min(len, leftSize + node.length - where);
+				node.copy(where - leftSize, n, dst, dstOff);
+				where += n;
+				len -= n;
+				dstOff += n;
+			}
+			where -= leftSize + node.length;
+			node = node.right;
+		}
+	}
+
+	/* A range of characters of a chunk or of a file, and the tree of the pieces that follow in the text */
+	private static final class Piece {
+		final char[] chars;  // the chunk of the characters, null if they are in the file
+		final FileText file;
+		final int start, length;  // the range of the characters in the chunk or the file
+		final Piece left, right;
+		final int size;  // the number of characters of this tree
+		final int priority;
+
+		Piece(char[] chars, int start, int length) {
+			this(chars, null, start, length, null, null, ThreadLocalRandom.current().nextInt());
+		}
+
+		Piece(FileText file, int start, int length) {
+			this(null, file, start, length, null, null, ThreadLocalRandom.current().nextInt());
+		}
+
+		private Piece(char[] chars, FileText file, int start, int length, Piece left, Piece right, int priority) {
+			this.chars = chars;
+			this.file = file;
+			this.start = start;
+			this.length = length;
+			this.left = left;
+			this.right = right;
+			this.priority = priority;
+			size = size(left) + length + size(right);
+		}
+
+		// Returns this piece with other subtrees
+		Piece with(Piece left, Piece right) {
+			return new Piece(chars, file, start, length, left, right, priority);
+		}
+
+		// Returns the characters from begin to end of this piece, with the given subtrees
+		Piece cut(int begin, int end, Piece left, Piece right) {
+			return new Piece(chars, file, start + begin, end - begin, left, right, priority);
+		}
+
+		// True if the other piece starts in the chunk or the file where this one ends
+		boolean follows(Piece other) {
+			return (chars != null ? chars == other.chars : file == other.file) && start + length == other.start;
+		}
+
+		void read(int offset, int len, Segment txt) {
+			if (chars != null) {
+				txt.array = chars;
+				txt.offset = start + offset;
+				txt.count = len;
+			} else {
+				file.read(start + offset, len, txt);
+			}
+		}
+
+		void copy(int offset, int len, char[] dst, int dstOff) {
+			if (chars != null) {
+				System.arraycopy(chars, start + offset, dst, dstOff, len);
+			} else {
+				file.copy(start + offset, len, dst, dstOff);
+			}
+		}
+	}
+
+	/* An insertion or a removal, undone by removing or inserting its pieces again.
+	 * The positions in removed text get back their offsets when it is inserted again. */
+	private final class Edit extends AbstractUndoableEdit {
+		private static final long serialVersionUID = 1L;
+		private final int offset;
+		private final transient Piece text;  // null if no character was removed
+		private final boolean insert;
+		private transient SavedPositions positions;  // the positions in the text while it is removed
+
+		Edit(int offset, Piece text, boolean insert, SavedPositions positions) {
+			this.offset = offset;
+			this.text = text;
+			this.insert = insert;
+			this.positions = positions;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			if (!apply(!insert)) {
+				throw new CannotUndoException();
+			}
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			if (!apply(insert)) {
+				throw new CannotRedoException();
+			}
+		}
+
+		// Inserts or removes the text, returns false if the content no longer has its offsets
+		private boolean apply(boolean insert) {
+			synchronized (PieceTableContent.this) {
+				int end = offset + size(text);
+				if (insert) {
+					if (offset >= root.size) {
+						return false;
+					}
+					if (text != null) {
+						insert(offset, text);
+					}
+					restorePositions(positions, offset, end);
+					positions = null;
+				} else {
+					if (end >= root.size) {
+						return false;
+					}
+					positions = savePositions(offset, end);
+					removeRange(offset, end);
+				}
+				return true;
+			}
+		}
+	}
+
+	/* -------- The positions -------- */
+
+	// Moves the positions after an insertion, those at the offset too unless it is 0
+	private void updateForInsert(int where, int length) {
+		lastPosition = null;
+		shift(Math.max(where, 1), length);
+	}
+
+	// Moves the positions in the removed text to its offset, and those after it
+	private void updateForRemove(int where, int length) {
+		lastPosition = null;
+		int end = where + length;
+		for (int b = blocks.isEmpty() ? 0 : findBlock(where); b < blocks.size(); b++) {
+			MarkBlock block = blocks.get(b);
+			int i = block.find(where);
+			while (i < block.size && block.marks[i].offset + block.delta < end) {
+				block.marks[i++].offset = where - block.delta;
+			}
+			if (i < block.size) {
+				break;
+			}
+		}
+		shift(end, -length);
+	}
+
+	// Returns the positions from start to end, both included, and their offsets
+	private SavedPositions savePositions(int start, int end) {
+		ArrayList<Mark> marks = new ArrayList<Mark>();
+		for (int b = blocks.isEmpty() ? 0 : findBlock(start); b < blocks.size(); b++) {
+			MarkBlock block = blocks.get(b);
+			int i = block.find(start);
+			for (; i < block.size && block.marks[i].offset + block.delta <= end; i++) {
+				marks.add(block.marks[i]);
+			}
+			if (i < block.size) {
+				break;
+			}
+		}
+		int[] offsets = new int[marks.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = marks.get(i).offset + marks.get(i).block.delta;
+		}
+		return new SavedPositions(marks.toArray(new Mark[offsets.length]), offsets);
+	}
+
+	// Gives back their offsets to the saved positions, once their text is inserted from start to end.
+	// They are all from start to end, where the positions are sorted again.
+	private void restorePositions(SavedPositions saved, int start, int end) {
+		if (saved == null || saved.marks.length == 0) {
+			return;
+		}
+		ArrayList<MarkBlock> slotBlocks = new ArrayList<MarkBlock>();
+		ArrayList<Integer> slots = new ArrayList<Integer>();
+		ArrayList<Mark> marks = new ArrayList<Mark>();
+		for (int b = findBlock(start); b < blocks.size(); b++) {
+			MarkBlock block = blocks.get(b);
+			int i = block.find(start);
+			for (; i < block.size && block.marks[i].offset + block.delta <= end; i++) {
+				slotBlocks.add(block);
+				slots.add(i);
+				marks.add(block.marks[i]);
+			}
+			if (i < block.size) {
+				break;
+			}
+		}
+		for (int i = 0; i < saved.marks.length; i++) {
+			saved.marks[i].offset = saved.offsets[i] - saved.marks[i].block.delta;
+		}
+		int[] offsets = new int[marks.size()];
+		Integer[] order = new Integer[marks.size()];
+		for (int i = 0; i < order.length; i++) {
+			offsets[i] = marks.get(i).offset + marks.get(i).block.delta;
+			order[i] = i;
+		}
+		Arrays.sort(order, (x, y) -> Integer.compare(offsets[x], offsets[y]));
+		for (int j = 0; j < order.length; j++) {
+			Mark mark = marks.get(order[j]);
+			MarkBlock block = slotBlocks.get(j);
+			mark.block = block;
+			mark.offset = offsets[order[j]] - block.delta;
+			block.marks[slots.get(j)] = mark;
+		}
+	}
+
+	// Adds the length to the offsets of the positions from the given offset
+	private void shift(int from, int length) {
+		if (blocks.isEmpty()) {
+			return;
+		}
+		int b = findBlock(from);
+		MarkBlock block = blocks.get(b);
+		for (int i = block.find(from); i < block.size; i++) {
+			block.marks[i].offset += length;
+		}
+		for (b++; b < blocks.size(); b++) {
+			blocks.get(b).delta += length;
+		}
+	}
+
+	// Returns the index of the block of the first position at or after the offset, the last block if there is none
+	private int findBlock(int offset) {
+		int low = 0, high = blocks.size() - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			MarkBlock block = blocks.get(mid);
+			if (block.size > 0 && block.marks[block.size - 1].offset + block.delta >= offset) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+	// Removes the positions that were garbage collected, once they are a large share of the positions
+	private void purge() {
+		while (released.poll() != null) {
+			numReleased++;
+		}
+		if (numReleased < 4096 || numReleased < numMarks / 4) {
+			return;
+		}
+		ArrayList<MarkBlock> kept = new ArrayList<MarkBlock>();
+		for (MarkBlock block : blocks) {
+			int size = 0;
+			for (int i = 0; i < block.size; i++) {
+				if (block.marks[i].get() != null) {
+					block.marks[size++] = block.marks[i];
+				}
+			}
+			numMarks -= block.size - size;
+			Arrays.fill(block.marks, size, block.size, null);
+			block.size = size;
+			if (size > 0) {
+				kept.add(block);
+			}
+		}
+		blocks.clear();
+		blocks.addAll(kept);
+		numReleased = 0;
+	}
+
+	/* Positions and the offsets they had before their text was removed */
+	private static final class SavedPositions {
+		final Mark[] marks;
+		final int[] offsets;
+
+		SavedPositions(Mark[] marks, int[] offsets) {
+			this.marks = marks;
+			this.offsets = offsets;
+		}
+	}
+
+	/* A position given to the document, that follows the text it is at */
+	private static final class StickyPosition implements Position {
+		Mark mark;
+
+		@Override
+		public int getOffset() {
+			synchronized (mark.block.content) {
+				return mark.offset + mark.block.delta;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return Integer.toString(getOffset());
+		}
+	}
+
+	/* The offset of a position, that is forgotten once the position is no longer used */
+	private static final class Mark extends WeakReference<StickyPosition> {
+		int offset;  // relative to the offset of the block
+		MarkBlock block;
+
+		Mark(StickyPosition position, ReferenceQueue<StickyPosition> queue) {
+			super(position, queue);
+		}
+	}
+
+	/* Positions sorted by offset */
+	private static final class MarkBlock {
+		final PieceTableContent content;  // the lock of the positions
+		Mark[] marks = new Mark[2 * MARK_BLOCK];
+		int size;
+		int delta;  // the offset added to the offsets of the marks
+
+		MarkBlock(PieceTableContent content, int delta) {
+			this.content = content;
+			this.delta = delta;
+		}
+
+		// Returns the index of the first mark at or after the offset
+		int find(int offset) {
+			int low = 0, high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (marks[mid].offset + delta < offset) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		void insert(int i, Mark mark) {
+			System.arraycopy(marks, i, marks, i + 1, size - i);
+			marks[i] = mark;
+			size++;
+		}
+
+		// Moves the second half of the marks to a new block, that follows this one
+		MarkBlock split() {
+			MarkBlock next = new MarkBlock(content, delta);
+			next.size = size - MARK_BLOCK;
+			System.arraycopy(marks, MARK_BLOCK, next.marks, 0, next.size);
+			Arrays.fill(marks, MARK_BLOCK, size, null);
+			size = MARK_BLOCK;
+			for (int i = 0; i < next.size; i++) {
+				next.marks[i].block = next;
+			}
+			return next;
+		}
+	}
+
+	/* -------- The file -------- */
+
+	/*
+	 * The text of a UTF-8 file, decoded a block at a time. Blocks start on a character and
+	 * are decoded on their own, so the file is read once, in order, to find the number of
+	 * characters of each block, and then again for the blocks that are read.
+	 * The offsets of the blocks read so far are published by numBlocks: the thread that reads
+	 * the file writes the offsets of the next blocks while other threads read the text of the
+	 * previous ones.
+	 * Line separators are read as a newline, as Swing documents expect.
+	 */
+	private static final class FileText {
+		private static final int BLOCK = 1 << 14;  // number of bytes of a block, a few more to end on a character
+		private static final int CACHED_BLOCKS = 256;  // number of decoded blocks kept in memory
+
+		private final Path path;
+		private final long size;
+		// the blocks are read again from the file that was opened, even if another file is saved under its name:
+		// the threads that read them are never interrupted, which would close the channel
+		private final FileChannel channel;
+		private final FileChannel reader;  // open until the file is read to its end, see read()
+		private volatile boolean closed;  // the text is no longer used, its channels are closed
+		private volatile IOException failure;  // the first failure to read a block again
+		private volatile Consumer<IOException> onFailure = e -> { };
+		private final long[] byteStarts;  // the offset in the file of each block, then the end of the last block read
+		private final int[] charStarts;  // the offset in the text of each block, then the length of the text read
+		private volatile int numBlocks;  // the number of blocks read
+		private final Map<Integer, char[]> cache = new LinkedHashMap<Integer, char[]>(CACHED_BLOCKS, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+				return size() > CACHED_BLOCKS;
+			}
+		};
+
+		// Opens the file, none of its blocks is read yet
+		FileText(Path path) throws IOException {
+			this.path = path;
+			try {
+				reader = FileChannel.open(path, StandardOpenOption.READ);
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+				size = reader.size();
+			}
+			catch (IOException e) {
+				CountMetrics.ERRORS.increment();
+				throw new IOException("File cannot be read: " + path, e);
+			}
+			// a character takes at most 3 bytes for each of its UTF-16 characters
+			if (size / 3 >= Integer.MAX_VALUE) {
+				reader.close();
+				channel.close();
+				throw new IOException("File too large to be edited: " + path);
+			}
+			// a block, but the last one, holds at least BLOCK bytes
+			int capacity = (int) ((size + BLOCK - 1) / BLOCK) + 1;
+			byteStarts = new long[capacity];
+			charStarts = new int[capacity];
+			if (size == 0) {
+				reader.close();
+				channel.close();
+			}
+		}
+
+		/* Closes the channels of the file, a block that is not in the cache can no longer be read */
+		void close() {
+			closed = true;
+			try {
+				reader.close();
+				channel.close();
+			}
+			catch (IOException e) {
+				CountMetrics.ERRORS.increment();
+			}
+		}
+
+		/* The length of the text of the blocks read */
+		int length() {
+			return charStarts[numBlocks];
+		}
+
+		long bytesRead() {
+			return byteStarts[numBlocks];
+		}
+
+		boolean isRead() {
+			return bytesRead() == size;
+		}
+
+		/* Reads the next blocks of the file, about the given number of bytes, passes their characters
+		 * to the consumer, if any, and returns their number. Called by one thread at a time. */
+		int read(long bytes, Consumer<Segment> consumer) throws IOException {
+			int k = numBlocks;
+			long position = byteStarts[k], end = Math.min(size, position + bytes);
+			long chars = charStarts[k];
+			long start = CountMetrics.start();
+			ByteBuffer buffer = ByteBuffer.allocate(BLOCK + 8);
+			char[] decoded = new char[buffer.capacity()];
+			Segment segment = new Segment();
+			try {
+				while (position < end) {
+					buffer.clear();
+					readFully(reader, buffer, position, size);
+					int blockEnd = blockEnd(buffer, position + buffer.limit() == size);
+					int n = decode(buffer.array(), blockEnd, decoded);
+					if (chars + n > Integer.MAX_VALUE - 1) {
+						throw new IOException("File too large to be edited: " + path);
+					}
+					if (consumer != null) {
+						segment.array = decoded;
+						segment.offset = 0;
+						segment.count = n;
+						consumer.accept(segment);
+					}
+					position += blockEnd;
+					chars += n;
+					k++;
+					byteStarts[k] = position;
+					charStarts[k] = (int) chars;
+				}
+				if (position == size) {
+					reader.close();
+				}
+			}
+			catch (IOException e) {
+				reader.close();
+				if (!closed) {
+					CountMetrics.ERRORS.increment();
+				}
+				throw new IOException("File cannot be read: " + path, e);
+			}
+			CountMetrics.BYTES_READ.add(position - byteStarts[numBlocks]);
+			CountMetrics.READ.stop(start);
+			int n = (int) chars - charStarts[numBlocks];
+			numBlocks = k;
+			return n;
+		}
+
+		// Reads the characters from offset, only those of its block
+		void read(int offset, int len, Segment txt) {
+			int k = findBlock(offset);
+			char[] chars = block(k);
+			txt.array = chars;
+			txt.offset = offset - charStarts[k];
+			txt.count = Math.min(len, charStarts[k + 1] - offset);
+		}
+
+		void copy(int offset, int len, char[] dst, int dstOff) {
+			while (len > 0) {
+				int k = findBlock(offset);
+				int n = Math.min(len, charStarts[k + 1] - offset);
+				System.arraycopy(block(k), offset - charStarts[k], dst, dstOff, n);
+				offset += n;
+				dstOff += n;
+				len -= n;
+			}
+		}
+
+		private int findBlock(int offset) {
+			int k = Arrays.binarySearch(charStarts, 0, numBlocks + 1, offset);
+			if (k < 0) {
+				return -k - 2;
+			}
+			// an empty block has the offset of the next one
+			while (charStarts[k + 1] == offset) {
+				k++;
+			}
+			return k;
+		}
+
+		// Returns the decoded characters of a block, reading it if it is not in the cache
+		private char[] block(int k) {
+			synchronized (cache) {
+				char[] chars = cache.get(k);
+				if (chars != null) {
+					return chars;
+				}
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) (byteStarts[k + 1] - byteStarts[k]));
+			char[] chars = new char[buffer.capacity()];
+			try {
+				readFully(channel, buffer, byteStarts[k], byteStarts[k + 1]);
+				int n = decode(buffer.array(), buffer.limit(), chars);
+				if (n != charStarts[k + 1] - charStarts[k]) {
+					throw new IOException("File changed since it was opened");
+				}
+				chars = Arrays.copyOf(chars, n);
+			}
+			catch (IOException e) {
+				chars = unreadable(k, e);
+			}
+			synchronized (cache) {
+				cache.put(k, chars);
+			}
+			return chars;
+		}
+
+		// Returns the characters of a block that cannot be read, as many replacement characters as it had,
+		// so that the text keeps its length and its lines. The first failure is counted and handled.
+		private char[] unreadable(int k, IOException e) {
+			char[] chars = new char[charStarts[k + 1] - charStarts[k]];
+			Arrays.fill(chars, '\uFFFD');
+			if (closed) {
+				return chars;
+			}
+			IOException first = null;
+			synchronized (this) {
+				if (failure == null) {
+					failure = first = new IOException("File cannot be read: " + path, e);
+				}
+			}
+			if (first != null) {
+				CountMetrics.ERRORS.increment();
+				onFailure.accept(first);
+			}
+			return chars;
+		}
+
+		// Fills the buffer with the bytes from position, up to its capacity or to the end
+		private static void readFully(FileChannel channel, ByteBuffer buffer, long position, long end)
+				throws IOException {
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of file");
+				}
+			}
+			buffer.flip();
+		}
+
+		// Returns the end of the block read in the buffer: after BLOCK bytes, on the first
+		// byte of a character that does not end a line separator
+		private static int blockEnd(ByteBuffer buffer, boolean last) {
+			byte[] bytes = buffer.array();
+			int end = Math.min(BLOCK, buffer.limit());
+			while (end < buffer.limit() && ((bytes[end] & 0xC0) == 0x80 || bytes[end] == '\n' && bytes[end - 1] == '\r')) {
+				end++;
+			}
+			return end < buffer.limit() || last ? end : buffer.limit();
+		}
+
+		// Decodes the bytes in the array, which has at least len characters: malformed bytes
+		// as the replacement character and line separators as a newline. Returns the number of characters.
+		private static int decode(byte[] bytes, int len, char[] chars) {
+			CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			CharBuffer decoded = CharBuffer.wrap(chars);
+			decoder.decode(ByteBuffer.wrap(bytes, 0, len), decoded, true);
+			decoder.flush(decoded);
+			int n = 0;
+			for (int i = 0, end = decoded.position(); i < end; i++) {
+				char c = chars[i];
+				if (c == '\r') {
+					if (i + 1 < end && chars[i + 1] == '\n') {
+						continue;
+					}
+					c = '\n';
+				}
+				chars[n++] = c;
+			}
+			return n;
+		}
+	}
+}
@@ -7,4 +7,7 @@
 module WordCountTool {
 	requires java.desktop;
 	requires java.datatransfer;
+	requires java.management;
+	requires jdk.httpserver;
+	requires static jdk.incubator.vector;
 }
\ No newline at end of file
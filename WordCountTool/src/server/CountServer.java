@@ -0,0 +1,300 @@
+/**
+ * Local HTTP service that counts the texts other applications send to it
+ *
+ * Usage: CountServer [--port n] [--threads n] [--queue n] [--rules en|fr]
+ *
+ * Endpoints:
+ * - POST /count counts the body of the request as one text, and answers
+ *   {"characters":...,"syllables":...,"words":...,"sentences":...}
+ * - POST /batch counts each string of a JSON array, ["First text.","Second text."],
+ *   and answers an array of counts in the same order
+ * - GET /stats answers the number of requests, documents and rejections, the size of
+ *   the queue and the p50, p90 and p99 latencies
+ *
+ * Features:
+ * - The bodies are counted as they arrive, they are never held in memory
+ * - The bodies are read in the charset of their Content-Type, UTF-8 by default,
+ *   and decompressed if their Content-Encoding is gzip
+ * - The rules are chosen per request with ?rules=en or ?rules=fr
+ * - The connections are kept alive between requests
+ * - When the queue is full, the requests are answered at once with 503 and Retry-After
+ */
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import document.CountMetrics;
+import document.CountingRules;
+import document.Json;
+import document.StreamingCounter;
+import document.TextCounter;
+
+/**
+ * @author Mickael Grivolat
+ */
+
+// Local HTTP service that counts texts
+public class CountServer implements Closeable {
+
+	private final HttpServer server;
+	private final CountingRules rules;
+	private final ThreadPoolExecutor workers;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final LongAdder numRequests = new LongAdder(), numDocuments = new LongAdder();
+	private final LongAdder numRejected = new LongAdder(), numErrors = new LongAdder();
+	private final long startTime = System.nanoTime();
+
+	static {
+		// the headers and the body of a response are written apart: with Nagle's algorithm, the body would
+		// wait for the client to acknowledge the headers, which it delays by up to 40 ms
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	/* Creates a server on the given address, not started, that counts with the given number of threads.
+	 * At most queue requests wait for a thread, the others are rejected. */
+	public CountServer(InetSocketAddress address, int threads, int queue, CountingRules rules) throws IOException {
+		this.rules = rules;
+		// the requests are only queued by the thread of the server, the workers read and count their bodies
+		workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue), r -> {
+					Thread thread = new Thread(r, "Word Count Server");
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+		server = HttpServer.create(address, 0);
+		server.createContext("/count", exchange -> submit(exchange, "POST", this::count));
+		server.createContext("/batch", exchange -> submit(exchange, "POST", this::batch));
+		// the statistics are answered at once, even when the workers are all busy
+		server.createContext("/stats", exchange -> {
+			try {
+				respond(exchange, 200, getStats());
+			} finally {
+				exchange.close();
+			}
+		});
+	}
+
+	/* Starts answering the requests */
+	public void start() {
+		server.start();
+	}
+
+	/* Stops the server, after at most a second for the requests being answered */
+	@Override
+	public void close() {
+		server.stop(1);
+		workers.shutdownNow();
+	}
+
+	// get methods
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public long getNumRequests() {
+		return numRequests.sum();
+	}
+
+	public long getNumRejected() {
+		return numRejected.sum();
+	}
+
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/* The counts of the server as a JSON object, latencies in microseconds */
+	public String getStats() {
+		double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+		return "{\"requests\":" + numRequests.sum() + ",\"documents\":" + numDocuments.sum()
+				+ ",\"rejected\":" + numRejected.sum() + ",\"errors\":" + numErrors.sum()
+				+ ",\"queued\":" + workers.getQueue().size() + ",\"active\":" + workers.getActiveCount()
+				+ ",\"requestsPerSecond\":" + Math.round(numRequests.sum() / seconds)
+				+ ",\"p50Micros\":" + latencies.getPercentile(50) + ",\"p90Micros\":" + latencies.getPercentile(90)
+				+ ",\"p99Micros\":" + latencies.getPercentile(99) + ",\"maxMicros\":" + latencies.getMaxMicros() + "}";
+	}
+
+	// Queues a request for the workers, or rejects it at once if the queue is full
+	private void submit(HttpExchange exchange, String method, Handler handler) throws IOException {
+		long start = System.nanoTime();
+		if (!exchange.getRequestMethod().equals(method)) {
+			exchange.getResponseHeaders().set("Allow", method);
+			exchange.getResponseHeaders().set("Connection", "close");
+			respond(exchange, 405, error("Method not allowed, use " + method));
+			return;
+		}
+		try {
+			workers.execute(() -> run(exchange, handler, start));
+		} catch (RejectedExecutionException e) {
+			numRejected.increment();
+			// the body is not read: the connection is closed, it cannot be used for another request
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			exchange.getResponseHeaders().set("Connection", "close");
+			respond(exchange, 503, error("Too many requests"));
+		}
+	}
+
+	// Answers a request on a worker, the latency includes the time it waited in the queue
+	private void run(HttpExchange exchange, Handler handler, long start) {
+		try {
+			String response;
+			try {
+				response = handler.handle(exchange);
+			} catch (IllegalArgumentException | IOException e) {
+				// the body could not be read: malformed, cut or in an unknown charset
+				numErrors.increment();
+				CountMetrics.ERRORS.increment();
+				exchange.getResponseHeaders().set("Connection", "close");
+				respond(exchange, 400, error(e.getMessage()));
+				return;
+			}
+			respond(exchange, 200, response);
+			numRequests.increment();
+			latencies.record(System.nanoTime() - start);
+		} catch (IOException e) {
+			// the client is gone
+			numErrors.increment();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	// Counts the body as a single text
+	private String count(HttpExchange exchange) throws IOException {
+		StreamingCounter counter = new StreamingCounter(charset(exchange), rules(exchange));
+		try (InputStream body = body(exchange)) {
+			counter.feed(body);
+		}
+		return json(counted(counter));
+	}
+
+	// Counts each string of the JSON array of the body, with the same counter reset between them
+	private String batch(HttpExchange exchange) throws IOException {
+		CountingRules rules = rules(exchange);
+		StringBuilder sb = new StringBuilder("[");
+		try (InputStreamReader reader = new InputStreamReader(body(exchange), charset(exchange))) {
+			JsonStrings strings = new JsonStrings(reader);
+			StreamingCounter counter = new StreamingCounter(StandardCharsets.UTF_8, rules);
+			while (strings.next(counter)) {
+				sb.append(sb.length() > 1 ? "," : "").append(json(counted(counter)));
+				counter.reset();
+			}
+		}
+		return sb.append(']').toString();
+	}
+
+	// Ends the text of the counter and records it in the metrics
+	private TextCounter counted(StreamingCounter counter) {
+		TextCounter counts = counter.finish();
+		numDocuments.increment();
+		CountMetrics.DOCUMENTS.increment();
+		CountMetrics.CHARACTERS.add(counts.getNumCharacters());
+		return counts;
+	}
+
+	// Returns the body of the request, decompressed if it is sent with gzip
+	private static InputStream body(HttpExchange exchange) throws IOException {
+		String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+		if (encoding != null && encoding.trim().equalsIgnoreCase("gzip")) {
+			return new GZIPInputStream(exchange.getRequestBody(), 1 << 16);
+		}
+		return exchange.getRequestBody();
+	}
+
+	// Returns the charset of the Content-Type of the request, UTF-8 by default
+	private static Charset charset(HttpExchange exchange) {
+		String type = exchange.getRequestHeaders().getFirst("Content-Type");
+		if (type != null) {
+			for (String parameter : type.split(";")) {
+				String[] pair = parameter.trim().split("=", 2);
+				if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+					return Charset.forName(pair[1].trim().replace("\"", ""));
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	// Returns the rules of the query parameter rules, the rules of the server by default
+	private CountingRules rules(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith("rules=")) {
+					return CountingRules.forName(URLDecoder.decode(parameter.substring(6), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		return rules;
+	}
+
+	private static String json(TextCounter counts) {
+		return "{\"characters\":" + counts.getNumCharacters() + ",\"syllables\":" + counts.getNumSyllables()
+				+ ",\"words\":" + counts.getNumWords() + ",\"sentences\":" + counts.getNumSentences() + "}";
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + Json.quote(String.valueOf(message)) + "}";
+	}
+
+	// Sends a JSON response; the request body is drained by the server when the exchange is closed
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/* Answers a request with a JSON response */
+	private interface Handler {
+		String handle(HttpExchange exchange) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = 8080;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = 0;
+		CountingRules rules = CountingRules.ENGLISH;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--queue") && i + 1 < args.length) {
+				queue = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rules = CountingRules.forName(args[++i]);
+			} else {
+				System.err.println("Usage: CountServer [--port n] [--threads n] [--queue n] [--rules en|fr]");
+				System.exit(2);
+			}
+		}
+
+		CountServer server = new CountServer(new InetSocketAddress("localhost", port), threads,
+				queue > 0 ? queue : threads * 64, rules);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+		server.start();
+		System.err.println("Counting on http://localhost:" + server.getPort() + "/count, /batch and /stats");
+		Thread.currentThread().join();
+	}
+}
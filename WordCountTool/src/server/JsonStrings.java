@@ -0,0 +1,125 @@
+package server;
+
+import java.io.IOException;
+import java.io.Reader;
+import document.StreamingCounter;
+
+/**
+ * Reads a JSON array of strings, such as ["First text.", "Second text."], and feeds
+ * each string to a counter as it is read: the strings are unescaped into a small
+ * buffer and never held whole in memory, whatever their length.
+ *
+ * @author Mickael Grivolat
+ */
+
+final class JsonStrings {
+
+	private static final int WINDOW = 1 << 13;  // number of characters read or counted at a time
+
+	private final Reader reader;
+	private final char[] in = new char[WINDOW], out = new char[WINDOW];
+	private int position, limit, count;
+	private boolean started, ended;
+
+	JsonStrings(Reader reader) {
+		this.reader = reader;
+	}
+
+	/* Feeds the next string of the array to the counter, returns false at the end of the array */
+	boolean next(StreamingCounter counter) throws IOException {
+		if (ended) {
+			return false;
+		}
+		int c = skipSpaces();
+		if (!started) {
+			expect(c == '[', "an array");
+			started = true;
+			c = skipSpaces();
+			if (c == ']') {
+				return end();
+			}
+		} else if (c == ']') {
+			return end();
+		} else {
+			expect(c == ',', "',' or ']'");
+			c = skipSpaces();
+		}
+		expect(c == '"', "a string");
+		readString(counter);
+		return true;
+	}
+
+	// Unescapes the characters of a string up to its closing quote, into the counter
+	private void readString(StreamingCounter counter) throws IOException {
+		count = 0;
+		while (true) {
+			int c = read();
+			expect(c >= 0, "the end of the string");
+			if (c == '"') {
+				break;
+			}
+			if (c == '\\') {
+				c = read();
+				switch (c) {
+				case '"': case '\\': case '/':
+					break;
+				case 'b': c = '\b'; break;
+				case 'f': c = '\f'; break;
+				case 'n': c = '\n'; break;
+				case 'r': c = '\r'; break;
+				case 't': c = '\t'; break;
+				case 'u':
+					c = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(read(), 16);
+						expect(digit >= 0, "4 hexadecimal digits");
+						c = c << 4 | digit;
+					}
+					break;
+				default:
+					expect(false, "an escape sequence");
+				}
+			} else {
+				expect(c >= 0x20, "no control character");
+			}
+			if (count == out.length) {
+				counter.feed(out, 0, count);
+				count = 0;
+			}
+			out[count++] = (char) c;
+		}
+		counter.feed(out, 0, count);
+	}
+
+	private boolean end() throws IOException {
+		ended = true;
+		expect(skipSpaces() < 0, "the end of the body");
+		return false;
+	}
+
+	private int skipSpaces() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+		return c;
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = reader.read(in, 0, in.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return in[position++];
+	}
+
+	private static void expect(boolean found, String expected) throws IOException {
+		if (!found) {
+			throw new IOException("Malformed JSON: expected " + expected);
+		}
+	}
+}
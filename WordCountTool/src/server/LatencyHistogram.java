@@ -0,0 +1,91 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * The distribution of durations, from which percentiles such as the median (p50) and
+ * the p99 are read. Durations are recorded in microseconds into buckets whose width is
+ * 1/SUB_BUCKETS of their power of two, so that a percentile is known within about 3%,
+ * whatever its magnitude, with a fixed amount of memory.
+ * Recording is lock-free: any number of threads can record while another one reads.
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;  // buckets per power of two
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/** Records a duration given in nanoseconds. */
+	public void record(long nanos) {
+		long micros = Math.max(nanos, 0) / 1000;
+		counts.incrementAndGet(index(micros));
+		max.accumulate(micros);
+	}
+
+	/** Returns the number of durations recorded. */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/** Returns the duration in microseconds that the given share of the durations do not exceed, 0 if none. */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(rank, 1)) {
+				return Math.min(highest(i), getMaxMicros());
+			}
+		}
+		return 0;
+	}
+
+	public long getMaxMicros() {
+		return max.get();
+	}
+
+	/** Forgets the durations recorded so far. */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		max.reset();
+	}
+
+	// Returns the bucket of a duration: the first SUB_BUCKETS hold one value each, the others a range
+	private static int index(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	// Returns the highest duration of a bucket
+	private static long highest(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,104 @@
+package batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import document.CountingRules;
+import document.ParallelCounter;
+import document.PartialCount;
+import document.ReadWriteFile;
+import document.TextCounter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The ranges of files a corpus is split into, counted apart, written and read back as
+ * a worker sends them, and joined in order, count as a single pass over each file,
+ * whatever the number of shards and wherever they cut the files.
+ *
+ * @author Mickael Grivolat
+ */
+
+class ShardedCountTest {
+
+	private static final String[] TOKENS = { "the ", "cake ", "rhythm", "été", "cœur", " ", ". ", "...", "!?",
+			"\n", "\r\n", "M. ", "Mme. ", "…", "😀", "42", "'", "-" };
+	private static final CountingRules[] RULES = { CountingRules.ENGLISH, CountingRules.FRENCH };
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void rangesReadBackFromAWorkerJoinAsASinglePass() throws IOException {
+		Random random = new Random(19);
+		writeFiles(random);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		for (CountingRules rules : RULES) {
+			ShardedCount corpus = new ShardedCount(rules);
+			corpus.add(directory);
+			List<File> files = corpus.getFiles();
+			for (int numShards = 1; numShards <= 9; numShards++) {
+				PartialCount[] counts = new PartialCount[files.size()];
+				for (List<ShardedCount.Range> shard : corpus.split(numShards)) {
+					for (ShardedCount.Range range : shard) {
+						PartialCount count = transfer(ParallelCounter.count(files.get(range.file), range.start, range.end, pool, rules));
+						counts[range.file] = counts[range.file] == null ? count : counts[range.file].join(count);
+					}
+				}
+				for (int i = 0; i < files.size(); i++) {
+					assertSameCounts(ReadWriteFile.count(files.get(i), rules), counts[i], files.get(i) + " in " + numShards);
+				}
+			}
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	void workerProcessesCountAsASinglePass() throws IOException, InterruptedException {
+		writeFiles(new Random(20));
+		ShardedCount corpus = new ShardedCount(CountingRules.FRENCH);
+		corpus.add(directory);
+		PartialCount[] counts = corpus.count(3, 1);
+		for (int i = 0; i < counts.length; i++) {
+			File f = corpus.getFiles().get(i);
+			assertSameCounts(ReadWriteFile.count(f, CountingRules.FRENCH), counts[i], f.toString());
+		}
+	}
+
+	// Writes files of a few bytes to a few hundred kilobytes, and an empty one
+	private void writeFiles(Random random) throws IOException {
+		Files.write(directory.resolve("empty.txt"), new byte[0]);
+		for (int i = 0; i < 6; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int length = random.nextInt(i < 3 ? 100 : 300000); sb.length() < length;) {
+				sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+			}
+			Files.write(directory.resolve("text" + i + ".txt"), sb.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	// Returns the counts as the reader of ShardedCount reads them from the output of a worker
+	private static PartialCount transfer(PartialCount count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		count.write(new DataOutputStream(bytes));
+		return PartialCount.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	private static void assertSameCounts(TextCounter expected, PartialCount actual, String message) {
+		assertEquals(expected.getNumCharacters(), actual.getNumCharacters(), message);
+		assertEquals(expected.getNumSyllables(), actual.getNumSyllables(), message);
+		assertEquals(expected.getNumWords(), actual.getNumWords(), message);
+		assertEquals(expected.getNumSentences(), actual.getNumSentences(), message);
+	}
+}
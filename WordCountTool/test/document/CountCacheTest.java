@@ -0,0 +1,193 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The counts of the cache are those of ReadWriteFile.count(), whether they are made, found by
+ * path, size and modification time, or found by content. A cache file that cannot be loaded,
+ * because it holds the counts of other rules or is not a cache at all, leaves an empty cache
+ * whose counts are made again and replace the file.
+ *
+ * @author Mickael Grivolat
+ */
+
+class CountCacheTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void unchangedFilesAreFoundOnceReloaded() throws IOException {
+		Random random = new Random(7);
+		String text = RandomText.of(random, 3000);
+		File[] files = { write("plain.txt", text), gzip("text.gz", text), zip("texts.zip", text, RandomText.of(random, 500)) };
+		File store = directory.resolve("cache.bin").toFile();
+		CountCache cache = new CountCache(store, 10, CountingRules.FRENCH);
+		for (File f : files) {
+			assertSameCounts(ReadWriteFile.count(f, CountingRules.FRENCH), cache.count(f));
+		}
+		assertEquals(files.length, cache.getMisses());
+		cache.save();
+
+		CountCache reloaded = new CountCache(store, 10, CountingRules.FRENCH);
+		assertFalse(reloaded.isDiscarded());
+		assertEquals(files.length, reloaded.size());
+		for (File f : files) {
+			assertSameCounts(ReadWriteFile.count(f, CountingRules.FRENCH), reloaded.count(f));
+		}
+		assertEquals(files.length, reloaded.getHits());
+		assertEquals(0, reloaded.getMisses());
+	}
+
+	@Test
+	void touchedAndCopiedFilesAreFoundByContent() throws IOException {
+		File text = write("text.txt", "The cake is on fire. Dr. Smith said so.");
+		CountCache cache = new CountCache(directory.resolve("cache.bin").toFile(), 10, CountingRules.ENGLISH);
+		cache.count(text);
+
+		Files.setLastModifiedTime(text.toPath(), FileTime.fromMillis(text.lastModified() - 60000));
+		assertSameCounts(ReadWriteFile.count(text), cache.count(text));
+		File copy = Files.copy(text.toPath(), directory.resolve("copy.txt")).toFile();
+		assertSameCounts(ReadWriteFile.count(text), cache.count(copy));
+		assertEquals(2, cache.getHashHits());
+
+		// the same size, another content
+		write("text.txt", "The fire is on cake! Mr. Smith said so.");
+		Files.setLastModifiedTime(text.toPath(), FileTime.fromMillis(text.lastModified() + 60000));
+		assertSameCounts(ReadWriteFile.count(text), cache.count(text));
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	void fileOfSeveralWindowsIsCountedAsAWhole() throws IOException {
+		// more than the 16 MB mapped at a time, with characters of 2 and 4 bytes across the windows
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 17 << 20) {
+			sb.append("Le cœur a ses raisons 😀 que la raison ignore. ");
+		}
+		File text = write("large.txt", sb.toString());
+		CountCache cache = new CountCache(directory.resolve("cache.bin").toFile(), 10, CountingRules.FRENCH);
+		assertSameCounts(ReadWriteFile.count(text, CountingRules.FRENCH), cache.count(text));
+	}
+
+	@Test
+	void runsCanSaveTheSameCacheAtOnce() throws Exception {
+		File text = write("text.txt", "The cake is on fire.");
+		File store = directory.resolve("cache.bin").toFile();
+		ExecutorService runs = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] saves = new Future<?>[16];
+			for (int i = 0; i < saves.length; i++) {
+				saves[i] = runs.submit(() -> {
+					CountCache cache = new CountCache(store, 10, CountingRules.ENGLISH);
+					cache.count(text);
+					cache.save();
+					return null;
+				});
+			}
+			for (Future<?> save : saves) {
+				save.get();
+			}
+		}
+		finally {
+			runs.shutdown();
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals(2, files.count());  // no temporary file is left
+		}
+		CountCache cache = new CountCache(store, 10, CountingRules.ENGLISH);
+		assertFalse(cache.isDiscarded());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void cacheOfOtherRulesIsMadeAgain() throws IOException {
+		File text = write("text.txt", "Le cœur a ses raisons. M. Dupont l'a dit.");
+		File store = directory.resolve("cache.bin").toFile();
+		CountCache english = new CountCache(store, 10, CountingRules.ENGLISH);
+		english.count(text);
+		english.save();
+
+		CountCache french = new CountCache(store, 10, CountingRules.FRENCH);
+		assertTrue(french.isDiscarded());
+		assertEquals(0, french.size());
+		assertSameCounts(ReadWriteFile.count(text, CountingRules.FRENCH), french.count(text));
+		assertEquals(1, french.getMisses());
+		french.save();
+
+		CountCache reloaded = new CountCache(store, 10, CountingRules.FRENCH);
+		assertFalse(reloaded.isDiscarded());
+		assertSameCounts(ReadWriteFile.count(text, CountingRules.FRENCH), reloaded.count(text));
+		assertEquals(1, reloaded.getHits());
+	}
+
+	@Test
+	void unreadableCacheIsMadeAgain() throws IOException {
+		File text = write("text.txt", "The cake is on fire. Dr. Smith said so.");
+		File store = write("cache.bin", "not a cache").getAbsoluteFile();
+		CountCache cache = new CountCache(store, 10, CountingRules.ENGLISH);
+		assertTrue(cache.isDiscarded());
+		assertSameCounts(ReadWriteFile.count(text, CountingRules.ENGLISH), cache.count(text));
+		cache.save();
+
+		// a file cut in the middle of its entries is not loaded in part
+		byte[] saved = Files.readAllBytes(store.toPath());
+		Files.write(store.toPath(), Arrays.copyOf(saved, saved.length - 5));
+		CountCache truncated = new CountCache(store, 10, CountingRules.ENGLISH);
+		assertTrue(truncated.isDiscarded());
+		assertEquals(0, truncated.size());
+	}
+
+	private File write(String name, String text) throws IOException {
+		return Files.write(directory.resolve(name), text.getBytes(StandardCharsets.UTF_8)).toFile();
+	}
+
+	private File gzip(String name, String text) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return Files.write(directory.resolve(name), bytes.toByteArray()).toFile();
+	}
+
+	private File zip(String name, String... texts) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+			for (int i = 0; i < texts.length; i++) {
+				out.putNextEntry(new ZipEntry("text" + i + ".txt"));
+				out.write(texts[i].getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+			}
+		}
+		return Files.write(directory.resolve(name), bytes.toByteArray()).toFile();
+	}
+
+	static void assertSameCounts(TextCounter expected, CountCache.Entry actual) {
+		assertEquals(expected.getNumCharacters(), actual.getNumCharacters());
+		assertEquals(expected.getNumSyllables(), actual.getNumSyllables());
+		assertEquals(expected.getNumWords(), actual.getNumWords());
+		assertEquals(expected.getNumSentences(), actual.getNumSentences());
+	}
+}
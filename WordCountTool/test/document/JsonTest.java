@@ -0,0 +1,25 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A string written by Json is a valid JSON string whatever its characters: quotes,
+ * backslashes and control characters are escaped, the other characters are kept.
+ *
+ * @author Mickael Grivolat
+ */
+
+class JsonTest {
+
+	@Test
+	void charactersJsonDoesNotAllowAreEscaped() {
+		assertEquals("\"\"", Json.quote(""));
+		assertEquals("\"été \\\"cœur\\\" 😀\"", Json.quote("été \"cœur\" 😀"));
+		assertEquals("\"C:\\\\dir\\\\file.txt\"", Json.quote("C:\\dir\\file.txt"));
+		assertEquals("\"a\\nb\\r\\nc\\td\\be\\ff\"", Json.quote("a\nb\r\nc\td\be\ff"));
+		assertEquals("\"\\u0000\\u001f\\u0001\u007f\"", Json.quote("\u0000\u001f\u0001\u007f"));
+		assertEquals("{\"error\":\"x\\\"y\"}", Json.quote(new StringBuilder("{\"error\":"), "x\"y").append('}').toString());
+	}
+}
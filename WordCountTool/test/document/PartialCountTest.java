@@ -0,0 +1,83 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The counts of the pieces of a text, joined in order, are the counts of a single pass
+ * over the text, wherever it is cut and whatever the order in which the joins are made.
+ *
+ * @author Mickael Grivolat
+ */
+
+class PartialCountTest {
+
+	@Test
+	void joinedPiecesCountAsTheWholeText() {
+		for (CountingRules rules : new CountingRules[] { CountingRules.ENGLISH, CountingRules.FRENCH }) {
+			Random random = new Random(1);
+			for (int round = 0; round < 2000; round++) {
+				String text = RandomText.of(random, random.nextInt(400));
+				int[] cuts = RandomText.cuts(random, text.length(), 1 + random.nextInt(8));
+				PartialCount count = PartialCount.EMPTY;
+				for (int i = 0; i + 1 < cuts.length; i++) {
+					count = count.join(PartialCount.of(text, cuts[i], cuts[i + 1], rules));
+				}
+				assertSameCounts(RandomText.count(text, rules), count, text);
+			}
+		}
+	}
+
+	@Test
+	void joinsCanBeMadeInAnyOrder() {
+		Random random = new Random(2);
+		for (int round = 0; round < 2000; round++) {
+			String text = RandomText.of(random, random.nextInt(400));
+			int[] cuts = RandomText.cuts(random, text.length(), 1 + random.nextInt(8));
+			assertSameCounts(RandomText.count(text, CountingRules.FRENCH),
+					joinHalves(text, cuts, 0, cuts.length - 1, CountingRules.FRENCH), text);
+		}
+	}
+
+	@Test
+	void countsAreTheSameOnceWrittenAndRead() throws IOException {
+		Random random = new Random(3);
+		for (int round = 0; round < 2000; round++) {
+			String text = RandomText.of(random, random.nextInt(200));
+			int cut = random.nextInt(text.length() + 1);
+			PartialCount head = copy(PartialCount.of(text, 0, cut, CountingRules.FRENCH));
+			PartialCount tail = copy(PartialCount.of(text, cut, text.length(), CountingRules.FRENCH));
+			assertSameCounts(RandomText.count(text, CountingRules.FRENCH), head.join(tail), text);
+		}
+	}
+
+	// Joins the counts of the pieces from first to last as a tree, as ParallelCounter does
+	private static PartialCount joinHalves(String text, int[] cuts, int first, int last, CountingRules rules) {
+		if (last - first == 1) {
+			return PartialCount.of(text, cuts[first], cuts[last], rules);
+		}
+		int middle = (first + last) >>> 1;
+		return joinHalves(text, cuts, first, middle, rules).join(joinHalves(text, cuts, middle, last, rules));
+	}
+
+	private static PartialCount copy(PartialCount count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		count.write(new DataOutputStream(bytes));
+		return PartialCount.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	static void assertSameCounts(TextCounter expected, PartialCount actual, String text) {
+		String message = "[" + text + "]";
+		assertEquals(expected.getNumCharacters(), actual.getNumCharacters(), message);
+		assertEquals(expected.getNumSyllables(), actual.getNumSyllables(), message);
+		assertEquals(expected.getNumWords(), actual.getNumWords(), message);
+		assertEquals(expected.getNumSentences(), actual.getNumSentences(), message);
+	}
+}
@@ -0,0 +1,54 @@
+package document;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random texts for the equivalence tests: words of English and French letters, with and
+ * without vowels and final "e", end of sentence punctuation, abbreviations, line separators,
+ * accented letters and characters outside the Basic Multilingual Plane.
+ *
+ * @author Mickael Grivolat
+ */
+
+final class RandomText {
+
+	private static final String[] TOKENS = { "the", "cake", "fire", "rhythm", "be", "e", "Syllable", "naïve",
+			"été", "cœur", "Mme.", "Dr.", "M.", "etc.", " ", " ", " ", "  ", ".", "...", "!?", "?", "…", "\n", "\r\n",
+			"'", "-", "42", "😀", "\t", "aeiouy", "XYZ", "là" };
+
+	private RandomText() {
+	}
+
+	/* Returns a text of about the given number of characters */
+	static String of(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			if (random.nextInt(8) == 0) {
+				sb.append((char) ('a' + random.nextInt(26)));
+			} else {
+				sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+			}
+		}
+		return sb.toString();
+	}
+
+	/* Returns the sorted cuts of a text of the given length into pieces, from 0 to length */
+	static int[] cuts(Random random, int length, int numPieces) {
+		int[] cuts = new int[numPieces + 1];
+		for (int i = 1; i < numPieces; i++) {
+			cuts[i] = random.nextInt(length + 1);
+		}
+		cuts[numPieces] = length;
+		Arrays.sort(cuts);
+		return cuts;
+	}
+
+	/* Returns the counts of the text counted in a single pass */
+	static TextCounter count(String text, CountingRules rules) {
+		TextCounter counter = new TextCounter(rules);
+		counter.count(text);
+		counter.finish();
+		return counter;
+	}
+}
@@ -0,0 +1,77 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The counts of any range answered by a ReadabilityIndex are those of the range counted
+ * alone, after any number of edits updated in place, including long sentences cut in
+ * several segments.
+ *
+ * @author Mickael Grivolat
+ */
+
+class ReadabilityIndexTest {
+
+	@Test
+	void rangesCountAsTheirText() {
+		for (CountingRules rules : new CountingRules[] { CountingRules.ENGLISH, CountingRules.FRENCH }) {
+			Random random = new Random(15);
+			for (int round = 0; round < 200; round++) {
+				String text = RandomText.of(random, random.nextInt(12000));
+				ReadabilityIndex index = new ReadabilityIndex(text, rules);
+				PartialCountTest.assertSameCounts(RandomText.count(text, rules), index.count(), text);
+				for (int i = 0; i < 20; i++) {
+					assertRange(text, index, random, rules);
+				}
+			}
+		}
+	}
+
+	@Test
+	void updatedIndexCountsAsTheEditedText() {
+		for (CountingRules rules : new CountingRules[] { CountingRules.ENGLISH, CountingRules.FRENCH }) {
+			Random random = new Random(16);
+			StringBuilder text = new StringBuilder(RandomText.of(random, 6000));
+			ReadabilityIndex index = new ReadabilityIndex(text, rules);
+			for (int round = 0; round < 1000; round++) {
+				int offset = random.nextInt(text.length() + 1);
+				int removed = random.nextInt(Math.min(text.length() - offset, 400) + 1);
+				String inserted = RandomText.of(random, random.nextInt(400));
+				text.replace(offset, offset + removed, inserted);
+				index.update(text, offset, removed, inserted.length());
+				PartialCountTest.assertSameCounts(RandomText.count(text.toString(), rules), index.count(), text.toString());
+				assertRange(text.toString(), index, random, rules);
+			}
+		}
+	}
+
+	@Test
+	void longSentencesAreCutInSegments() {
+		// no end of sentence punctuation: the text is one sentence, cut every MAX_SEGMENT characters
+		StringBuilder text = new StringBuilder();
+		Random random = new Random(17);
+		while (text.length() < 100000) {
+			text.append("été cœur rhythm ");
+		}
+		ReadabilityIndex index = new ReadabilityIndex("", CountingRules.FRENCH);
+		for (int offset = 0; offset < text.length(); offset += 1000) {
+			index.update(text, offset, 0, Math.min(1000, text.length() - offset));
+		}
+		assertEquals(1, index.count().getNumSentences());
+		PartialCountTest.assertSameCounts(RandomText.count(text.toString(), CountingRules.FRENCH), index.count(), "");
+		assertTrue(index.getNumSegments() > 10);
+		for (int i = 0; i < 100; i++) {
+			assertRange(text.toString(), index, random, CountingRules.FRENCH);
+		}
+	}
+
+	private static void assertRange(String text, ReadabilityIndex index, Random random, CountingRules rules) {
+		int start = random.nextInt(text.length() + 1), end = start + random.nextInt(text.length() - start + 1);
+		String range = text.substring(start, end);
+		PartialCountTest.assertSameCounts(RandomText.count(range, rules), index.count(text, start, end), range);
+	}
+}
@@ -0,0 +1,94 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * UTF-8 text counts as its decoded characters, wherever the bytes are split: inside an encoded
+ * character for the counters that read the bytes as they come, and between two characters for
+ * the ranges of a file counted apart and joined, as the workers of ShardedCount do.
+ *
+ * @author Mickael Grivolat
+ */
+
+class Utf8BoundaryTest {
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	@TempDir
+	Path directory;
+
+	@AfterAll
+	static void shutdown() {
+		POOL.shutdown();
+	}
+
+	@Test
+	void bytesSplitInsideCharactersCountAsTheText() {
+		for (CountingRules rules : new CountingRules[] { CountingRules.ENGLISH, CountingRules.FRENCH }) {
+			Random random = new Random(6);
+			for (int round = 0; round < 2000; round++) {
+				String text = RandomText.of(random, random.nextInt(600));
+				byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				int[] cuts = RandomText.cuts(random, bytes.length, 1 + random.nextInt(10));
+
+				TextCounter counter = new TextCounter(rules);
+				StreamingCounter stream = new StreamingCounter(StandardCharsets.UTF_8, rules);
+				for (int i = 0; i + 1 < cuts.length; i++) {
+					counter.countUtf8(ByteBuffer.wrap(bytes, cuts[i], cuts[i + 1] - cuts[i]));
+					stream.feed(ByteBuffer.wrap(bytes, cuts[i], cuts[i + 1] - cuts[i]));
+				}
+				counter.finish();
+				TextCounter expected = RandomText.count(text, rules);
+				assertSameCounts(expected, counter, text);
+				assertSameCounts(expected, stream.finish(), text);
+			}
+		}
+	}
+
+	@Test
+	void rangesOfAFileJoinAsASinglePass() throws IOException {
+		for (CountingRules rules : new CountingRules[] { CountingRules.ENGLISH, CountingRules.FRENCH }) {
+			Random random = new Random(7);
+			for (int round = 0; round < 100; round++) {
+				String text = RandomText.of(random, random.nextInt(20000));
+				File f = directory.resolve("text" + round + ".txt").toFile();
+				Files.write(f.toPath(), text.getBytes(StandardCharsets.UTF_8));
+				int[] cuts = RandomText.cuts(random, (int) f.length(), 1 + random.nextInt(7));
+
+				PartialCount count = PartialCount.EMPTY;
+				long from = 0;
+				for (int i = 1; i < cuts.length; i++) {
+					long to = cuts[i];
+					if (to < f.length() && !rules.isAscii()) {
+						to = Math.min(f.length(), ParallelCounter.characterStart(f, to));
+					}
+					if (to > from || i == cuts.length - 1) {
+						count = count.join(ParallelCounter.count(f, from, Math.max(to, from), POOL, rules));
+						from = Math.max(to, from);
+					}
+				}
+				PartialCountTest.assertSameCounts(RandomText.count(text, rules), count, text);
+			}
+		}
+	}
+
+	private static void assertSameCounts(TextCounter expected, TextCounter actual, String text) {
+		String message = "[" + text + "]";
+		assertEquals(expected.getNumCharacters(), actual.getNumCharacters(), message);
+		assertEquals(expected.getNumSyllables(), actual.getNumSyllables(), message);
+		assertEquals(expected.getNumWords(), actual.getNumWords(), message);
+		assertEquals(expected.getNumSentences(), actual.getNumSentences(), message);
+	}
+}
@@ -0,0 +1,79 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The vector kernel counts as the scalar state machine. A text counted at once goes through
+ * the kernel, the same text given in pieces of less than VECTOR_MIN characters does not.
+ * Run with --add-modules jdk.incubator.vector, as the build does, otherwise the tests are skipped.
+ *
+ * @author Mickael Grivolat
+ */
+
+class VectorCounterTest {
+
+	private static final int SCALAR_PIECE = 200;  // fewer characters than the kernel needs
+
+	@BeforeEach
+	void vectorsAreAvailable() {
+		assumeTrue(CountingRules.ENGLISH.vectors != null, "the vector module is not loaded");
+	}
+
+	@Test
+	void stringsCountAsWithoutVectors() {
+		Random random = new Random(4);
+		for (int round = 0; round < 300; round++) {
+			String text = RandomText.of(random, 256 + random.nextInt(40000));
+			for (boolean syllables : new boolean[] { true, false }) {
+				TextCounter vector = new TextCounter(CountingRules.ENGLISH, syllables);
+				vector.count(text);
+				vector.finish();
+				TextCounter scalar = new TextCounter(CountingRules.ENGLISH, syllables);
+				char[] chars = text.toCharArray();
+				for (int i = 0; i < chars.length; i += SCALAR_PIECE) {
+					scalar.count(chars, i, Math.min(SCALAR_PIECE, chars.length - i));
+				}
+				scalar.finish();
+				assertSameCounts(scalar, vector, syllables);
+
+				TextCounter array = new TextCounter(CountingRules.ENGLISH, syllables);
+				array.count(chars, 0, chars.length);
+				array.finish();
+				assertSameCounts(scalar, array, syllables);
+			}
+		}
+	}
+
+	@Test
+	void utf8CountsAsWithoutVectors() {
+		Random random = new Random(5);
+		for (int round = 0; round < 300; round++) {
+			byte[] bytes = RandomText.of(random, 256 + random.nextInt(40000)).getBytes(StandardCharsets.UTF_8);
+			TextCounter vector = new TextCounter(CountingRules.ENGLISH);
+			vector.countUtf8(ByteBuffer.wrap(bytes));
+			vector.finish();
+			TextCounter scalar = new TextCounter(CountingRules.ENGLISH);
+			for (int i = 0; i < bytes.length; i += SCALAR_PIECE) {
+				scalar.countUtf8(ByteBuffer.wrap(bytes, i, Math.min(SCALAR_PIECE, bytes.length - i)));
+			}
+			scalar.finish();
+			assertSameCounts(scalar, vector, true);
+		}
+	}
+
+	private static void assertSameCounts(TextCounter expected, TextCounter actual, boolean syllables) {
+		assertEquals(expected.getNumCharacters(), actual.getNumCharacters());
+		if (syllables) {
+			assertEquals(expected.getNumSyllables(), actual.getNumSyllables());
+		}
+		assertEquals(expected.getNumWords(), actual.getNumWords());
+		assertEquals(expected.getNumSentences(), actual.getNumSentences());
+	}
+}
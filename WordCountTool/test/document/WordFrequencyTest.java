@@ -0,0 +1,131 @@
+package document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The words and n-grams a WordFrequency counts are those of the sentences of the text,
+ * ignoring case and wherever the text is cut, and its most frequent ones are those with
+ * the largest counts. A full table counts what it cannot hold as dropped.
+ *
+ * @author Mickael Grivolat
+ */
+
+class WordFrequencyTest {
+
+	private static final String[] WORDS = { "the", "The", "cake", "fire", "rhythm", "été", "ÉTÉ", "cœur", "là",
+			"x", "Syllable" };
+	private static final String[] SEPARATORS = { " ", "  ", ", ", "\n", " - ", "'" };
+	private static final String[] TERMINATORS = { ". ", "! ", "?", "...", "…" };
+
+	@Test
+	void countsAreThoseOfTheSentences() {
+		Random random = new Random(18);
+		for (int round = 0; round < 200; round++) {
+			Map<String, Integer> words = new HashMap<String, Integer>(), bigrams = new HashMap<String, Integer>();
+			Map<String, Integer> trigrams = new HashMap<String, Integer>();
+			StringBuilder text = new StringBuilder();
+			List<String> sentence = new ArrayList<String>();
+			for (int i = random.nextInt(500); i >= 0; i--) {
+				String word = WORDS[random.nextInt(WORDS.length)];
+				text.append(word);
+				sentence.add(word.toLowerCase());
+				int n = sentence.size();
+				words.merge(sentence.get(n - 1), 1, Integer::sum);
+				if (n >= 2) {
+					bigrams.merge(sentence.get(n - 2) + " " + sentence.get(n - 1), 1, Integer::sum);
+				}
+				if (n >= 3) {
+					trigrams.merge(sentence.get(n - 3) + " " + sentence.get(n - 2) + " " + sentence.get(n - 1), 1, Integer::sum);
+				}
+				if (random.nextInt(6) == 0) {
+					text.append(TERMINATORS[random.nextInt(TERMINATORS.length)]);
+					sentence.clear();
+				} else {
+					text.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+				}
+			}
+
+			// the text is counted in pieces, a word can be cut between two of them
+			WordFrequency frequency = new WordFrequency(3, 1 << 20, CountingRules.FRENCH);
+			int[] cuts = RandomText.cuts(random, text.length(), 1 + random.nextInt(8));
+			for (int i = 0; i + 1 < cuts.length; i++) {
+				frequency.count(text.subSequence(cuts[i], cuts[i + 1]));
+			}
+			frequency.finish();
+
+			assertEquals(words.size(), frequency.getNumDistinctWords());
+			assertEquals(bigrams.size(), frequency.getNumDistinctBigrams());
+			assertEquals(trigrams.size(), frequency.getNumDistinctTrigrams());
+			assertEquals(0, frequency.getNumDropped());
+			for (Map.Entry<String, Integer> word : words.entrySet()) {
+				assertEquals(word.getValue(), frequency.getCount(word.getKey().toUpperCase()), word.getKey());
+			}
+			assertTop(words, frequency.topWords(5));
+			assertTop(bigrams, frequency.topBigrams(5));
+			assertTop(trigrams, frequency.topTrigrams(5));
+		}
+	}
+
+	@Test
+	void fullTablesCountTheRestAsDropped() {
+		WordFrequency frequency = new WordFrequency(1, 3);
+		frequency.count("a b c d e f a g");
+		frequency.finish();
+		assertEquals(3, frequency.getNumDistinctWords());
+		assertEquals(4, frequency.getNumDropped());
+		assertEquals(2, frequency.getCount("a"));
+		assertEquals(0, frequency.getCount("d"));
+
+		// the bigram ending with a dropped word, and the one that follows it, are not counted
+		frequency = new WordFrequency(2, 3);
+		frequency.count("a b c a b c d c a");
+		frequency.finish();
+		assertEquals(3, frequency.getNumDistinctBigrams());
+		assertEquals(1, frequency.getNumDropped());
+		assertEquals("[a b=2, b c=2, c a=2]", sorted(frequency.topBigrams(10)).toString());
+	}
+
+	@Test
+	void periodOfAnAbbreviationDoesNotEndTheSentence() {
+		WordFrequency frequency = new WordFrequency(3, 100, CountingRules.FRENCH);
+		frequency.count("Bonjour M. Dupont. Le Dr. Martin est là.");
+		frequency.finish();
+		assertEquals("[bonjour m=1, dr martin=1, est là=1, le dr=1, m dupont=1, martin est=1]",
+				sorted(frequency.topBigrams(10)).toString());
+		assertEquals(4, frequency.topTrigrams(10).size());
+
+		// the English rules have no abbreviations
+		frequency = new WordFrequency(2, 100, CountingRules.ENGLISH);
+		frequency.count("Hello Mr. Smith.");
+		frequency.finish();
+		assertEquals("[hello mr=1]", frequency.topBigrams(10).toString());
+	}
+
+	// Checks that the entries are the most frequent, the most frequent first
+	private static void assertTop(Map<String, Integer> counts, List<WordFrequency.Entry> top) {
+		List<Integer> expected = new ArrayList<Integer>(counts.values());
+		expected.sort((a, b) -> b - a);
+		assertEquals(Math.min(5, counts.size()), top.size());
+		for (int i = 0; i < top.size(); i++) {
+			assertEquals(expected.get(i), top.get(i).getCount());
+			assertEquals(counts.get(top.get(i).getText()), top.get(i).getCount(), top.get(i).getText());
+		}
+	}
+
+	// Returns the entries sorted by their text, whatever the order of the entries of the same count
+	private static List<String> sorted(List<WordFrequency.Entry> entries) {
+		List<String> texts = new ArrayList<String>();
+		for (WordFrequency.Entry entry : entries) {
+			texts.add(entry.toString());
+		}
+		texts.sort(null);
+		return texts;
+	}
+}
@@ -0,0 +1,123 @@
+package gui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import javax.swing.text.BadLocationException;
+import document.CountingRules;
+import document.PartialCount;
+import document.ReadabilityIndex;
+import document.TextCounter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The counts a CountingDocument keeps up to date edit after edit, re-counting only the
+ * region around each edit, are the counts of its whole text counted again with its rules.
+ * The counts of its ranges, from the index of its sentences, are those of the range counted alone.
+ *
+ * @author Mickael Grivolat
+ */
+
+class CountingDocumentTest {
+
+	private static final String[] TOKENS = { "the ", "cake ", "fire", "rhythm", "be", "e", " ", "  ", ".", "...",
+			"!?", "?", "\n", "Syllable", "'", "-", "42", "😀", "Dr. ", "XYZ", "aeiouy", "été", "cœur", "M. ", "Mme.",
+			"…", "là" };
+	private static final CountingRules[] RULES = { CountingRules.ENGLISH, CountingRules.FRENCH };
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void editedCountsAreThoseOfTheWholeText() throws BadLocationException {
+		for (CountingRules rules : RULES) {
+			Random random = new Random(12);
+			CountingDocument document = new CountingDocument(rules);
+			for (int round = 0; round < 3000; round++) {
+				int length = document.getLength();
+				if (length == 0 || random.nextInt(3) > 0) {
+					document.insertString(random.nextInt(length + 1), text(random, 1 + random.nextInt(12)), null);
+				} else {
+					int offset = random.nextInt(length);
+					document.remove(offset, 1 + random.nextInt(Math.min(length - offset, 12)));
+				}
+				assertSameCounts(document);
+				assertSameRangeCounts(document, random);
+			}
+		}
+	}
+
+	@Test
+	void largeEditsAreCountedAgainAsAWhole() throws BadLocationException {
+		Random random = new Random(13);
+		CountingDocument document = new CountingDocument(CountingRules.FRENCH);
+		for (int round = 0; round < 50; round++) {
+			int length = document.getLength();
+			if (random.nextBoolean()) {
+				document.insertString(random.nextInt(length + 1), text(random, 70000), null);
+				assertTrue(document.isStale());
+				// as BackgroundCounter does once the edits pause
+				String text = document.getText(0, document.getLength());
+				assertTrue(document.setCounts(new ReadabilityIndex(text, CountingRules.FRENCH), document.getVersion()));
+			} else if (length > 0) {
+				int offset = random.nextInt(length);
+				document.remove(offset, 1 + random.nextInt(Math.min(length - offset, 30)));
+			}
+			assertSameCounts(document);
+			assertSameRangeCounts(document, random);
+		}
+	}
+
+	@Test
+	void openedFileIsCountedAndEditedAsTypedText() throws IOException, BadLocationException {
+		Random random = new Random(14);
+		Path path = Files.write(directory.resolve("text.txt"), text(random, 20000).getBytes(StandardCharsets.UTF_8));
+		CountingDocument document = new CountingDocument(PieceTableContent.open(path.toFile()), CountingRules.FRENCH);
+		assertSameCounts(document);
+		for (int round = 0; round < 500; round++) {
+			int offset = random.nextInt(document.getLength());
+			document.remove(offset, 1 + random.nextInt(Math.min(document.getLength() - offset, 12)));
+			document.insertString(random.nextInt(document.getLength() + 1), text(random, 1 + random.nextInt(12)), null);
+			assertSameCounts(document);
+		}
+		document.close();
+	}
+
+	private static String text(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length + 8);
+		while (sb.length() < length) {
+			sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static void assertSameRangeCounts(CountingDocument document, Random random) throws BadLocationException {
+		String text = document.getText(0, document.getLength());
+		int start = random.nextInt(text.length() + 1), end = start + random.nextInt(text.length() - start + 1);
+		PartialCount expected = PartialCount.of(text, start, end, document.getRules());
+		PartialCount actual = document.countRange(start, end);
+		String message = "[" + text.substring(start, end) + "]";
+		assertEquals(expected.getNumCharacters(), actual.getNumCharacters(), message);
+		assertEquals(expected.getNumSyllables(), actual.getNumSyllables(), message);
+		assertEquals(expected.getNumWords(), actual.getNumWords(), message);
+		assertEquals(expected.getNumSentences(), actual.getNumSentences(), message);
+	}
+
+	private static void assertSameCounts(CountingDocument document) throws BadLocationException {
+		String text = document.getText(0, document.getLength());
+		TextCounter expected = new TextCounter(document.getRules());
+		expected.count(text);
+		expected.finish();
+		String message = "[" + text + "]";
+		assertEquals(expected.getNumCharacters(), document.getNumCharacters(), message);
+		assertEquals(expected.getNumSyllables(), document.getNumSyllables(), message);
+		assertEquals(expected.getNumWords(), document.getNumWords(), message);
+		assertEquals(expected.getNumSentences(), document.getNumSentences(), message);
+	}
+}
@@ -0,0 +1,177 @@
+package gui;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The text of a PieceTableContent is the text of its file, read block by block, after the
+ * same insertions and removals made to a string. A snapshot keeps the text it was taken
+ * from, whatever the edits that follow. A file changed under the content reads as replacement
+ * characters instead of failing, and a closed content leaves its file closed.
+ *
+ * @author Mickael Grivolat
+ */
+
+class PieceTableContentTest {
+
+	private static final String[] TOKENS = { "word ", "été ", "cœur. ", "😀", "\r\n", "\n", "\r", "Dr. ", "x" };
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void editsOfAnOpenFileAreThoseOfAString() throws IOException, BadLocationException {
+		Random random = new Random(8);
+		String text = text(random, 300000);
+		Path path = Files.write(directory.resolve("text.txt"), text.getBytes(StandardCharsets.UTF_8));
+		PieceTableContent content = PieceTableContent.open(path.toFile());
+		while (!content.isLoaded()) {
+			content.append(content.read(1 << 16, null));
+		}
+		StringBuilder expected = new StringBuilder(text.replace("\r\n", "\n").replace('\r', '\n')).append('\n');
+		assertText(expected, content);
+
+		PieceTableContent.Snapshot snapshot = content.snapshot();
+		String before = expected.toString();
+		for (int round = 0; round < 2000; round++) {
+			int where = random.nextInt(expected.length());
+			if (random.nextBoolean()) {
+				String inserted = text(random, random.nextInt(4) == 0 ? 20000 : 10);
+				content.insertString(where, inserted);
+				expected.insert(where, inserted);
+			} else {
+				int n = Math.min(random.nextInt(random.nextInt(4) == 0 ? 20000 : 20), expected.length() - 1 - where);
+				content.remove(where, n);
+				expected.delete(where, where + n);
+			}
+			int from = random.nextInt(expected.length()), len = random.nextInt(expected.length() - from + 1);
+			assertEquals(expected.substring(from, from + len), content.getString(from, len));
+		}
+		assertText(expected, content);
+		assertEquals(before, read(snapshot.reader()));
+		content.close();
+	}
+
+	@Test
+	void fileChangedUnderTheContentReadsAsReplacementCharacters() throws IOException, BadLocationException {
+		Path path = Files.write(directory.resolve("text.txt"), text(new Random(11), 100000).getBytes(StandardCharsets.UTF_8));
+		PieceTableContent content = PieceTableContent.open(path.toFile());
+		List<IOException> failures = new ArrayList<IOException>();
+		content.setFailureHandler(failures::add);
+		while (!content.isLoaded()) {
+			content.append(content.read(1 << 16, null));
+		}
+		int length = content.length();
+		Files.write(path, "shorter".getBytes(StandardCharsets.UTF_8));
+
+		String text = content.getString(0, length);
+		assertEquals(length, text.length());
+		assertEquals('\uFFFD', text.charAt(0));
+		content.getString(0, length);
+		assertEquals(1, failures.size());
+		assertThrows(IOException.class, () -> read(content.snapshot().reader()));
+		content.close();
+	}
+
+	@Test
+	void closedContentLeavesNoFileOpen() throws IOException {
+		Path fds = Path.of("/proc/self/fd");
+		Assumptions.assumeTrue(Files.isDirectory(fds));
+		Path path = Files.write(directory.resolve("text.txt"), text(new Random(10), 200000).getBytes(StandardCharsets.UTF_8));
+		PieceTableContent content = PieceTableContent.open(path.toFile());
+		assertTrue(openCount(fds, path) > 0);
+		content.close();
+		assertEquals(0, openCount(fds, path));
+	}
+
+	@Test
+	void undoneEditsRestoreTheText() throws IOException, BadLocationException {
+		Random random = new Random(9);
+		PieceTableContent content = new PieceTableContent();
+		StringBuilder expected = new StringBuilder("\n");
+		for (int round = 0; round < 500; round++) {
+			int where = random.nextInt(expected.length());
+			String before = expected.toString();
+			if (random.nextBoolean()) {
+				String inserted = text(random, 30);
+				UndoableEdit edit = content.insertString(where, inserted);
+				edit.undo();
+				assertEquals(before, content.getString(0, content.length()));
+				edit.redo();
+				expected.insert(where, inserted);
+			} else {
+				int n = random.nextInt(expected.length() - where);
+				UndoableEdit edit = content.remove(where, n);
+				edit.undo();
+				assertEquals(before, content.getString(0, content.length()));
+				edit.redo();
+				expected.delete(where, where + n);
+			}
+			assertText(expected, content);
+		}
+	}
+
+	private static String text(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length + 8);
+		while (sb.length() < length) {
+			sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+		}
+		return sb.toString();
+	}
+
+	// Checks the text read piece by piece and as a whole
+	private static void assertText(CharSequence expected, PieceTableContent content)
+			throws IOException, BadLocationException {
+		assertEquals(expected.length(), content.length());
+		StringBuilder pieces = new StringBuilder();
+		Segment segment = new Segment();
+		segment.setPartialReturn(true);
+		for (int offset = 0; offset < content.length(); offset += segment.count) {
+			content.getChars(offset, content.length() - offset, segment);
+			assertTrue(segment.count > 0);
+			pieces.append(segment.array, segment.offset, segment.count);
+		}
+		assertEquals(expected.toString(), pieces.toString());
+		assertEquals(expected.toString(), read(content.snapshot().reader()));
+	}
+
+	// Returns the number of descriptors of the process open on the file
+	private static long openCount(Path fds, Path file) throws IOException {
+		try (Stream<Path> links = Files.list(fds)) {
+			return links.filter(link -> {
+				try {
+					return Files.readSymbolicLink(link).equals(file);
+				}
+				catch (IOException e) {
+					return false;  // closed meanwhile
+				}
+			}).count();
+		}
+	}
+
+	private static String read(Reader reader) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[1000];
+		for (int n; (n = reader.read(buffer, 0, buffer.length)) >= 0;) {
+			sb.append(buffer, 0, n);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,65 @@
+package benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates the texts the benchmarks count: English-like words separated by spaces,
+ * commas and line breaks, with more or less end of sentence punctuation.
+ * The same size and density always give the same text.
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class Corpus {
+
+	private static final String[] WORDS = {
+		"the", "a", "of", "to", "and", "in", "is", "it", "you", "that", "he", "was", "for", "on",
+		"are", "with", "as", "they", "be", "at", "one", "have", "this", "from", "by", "hot", "word",
+		"but", "what", "some", "we", "can", "out", "other", "were", "all", "there", "when", "up",
+		"use", "your", "how", "said", "an", "each", "she", "which", "do", "their", "time", "if",
+		"will", "way", "about", "many", "then", "them", "write", "would", "like", "so", "these",
+		"her", "long", "make", "thing", "see", "him", "two", "has", "look", "more", "day", "could",
+		"go", "come", "did", "number", "sound", "no", "most", "people", "my", "over", "know",
+		"water", "than", "call", "first", "who", "may", "down", "side", "been", "now", "find",
+		"Syllable", "beautiful", "queue", "rhythm", "eye", "readability", "Everyone", "cooperate"
+	};
+	private static final String[] TERMINATORS = { ".", ".", ".", "!", "?", "...", "?!" };
+
+	private Corpus() {
+	}
+
+	/** Parses a size such as "1KB", "1MB" or "100MB" into a number of characters. */
+	public static int parseSize(String size) {
+		String s = size.trim().toUpperCase();
+		if (s.endsWith("MB")) {
+			return Integer.parseInt(s.substring(0, s.length() - 2)) << 20;
+		}
+		if (s.endsWith("KB")) {
+			return Integer.parseInt(s.substring(0, s.length() - 2)) << 10;
+		}
+		return Integer.parseInt(s);
+	}
+
+	/**
+	 * Returns a text of the given number of characters. The density is the average number
+	 * of end of sentence punctuation sequences per 100 words.
+	 */
+	public static String generate(int length, int density) {
+		Random random = new Random(length * 31L + density);
+		StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+			int r = random.nextInt(100);
+			if (r < density) {
+				sb.append(TERMINATORS[random.nextInt(TERMINATORS.length)]);
+				sb.append(random.nextInt(8) == 0 ? "\n" : " ");
+			} else if (r < density + 5) {
+				sb.append(", ");
+			} else {
+				sb.append(' ');
+			}
+		}
+		sb.setLength(length);
+		return sb.toString();
+	}
+}
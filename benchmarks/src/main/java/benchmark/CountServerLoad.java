@@ -0,0 +1,158 @@
+package benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import document.CountingRules;
+import server.CountServer;
+import server.LatencyHistogram;
+
+/**
+ * Load generator of CountServer: client threads send texts of the corpus as fast as
+ * they are answered, over connections that are kept alive, for a number of seconds,
+ * then the throughput and the latencies seen by the clients are printed, followed by
+ * the statistics of the server.
+ * Without --url, a server is started in this JVM on a free port.
+ *
+ *       java -cp benchmarks/target/benchmarks.jar benchmark.CountServerLoad
+ *             [--url http://localhost:8080] [--clients n] [--seconds n] [--size 4KB] [--batch n]
+ *             [--density n] [--threads n] [--queue n]
+ *
+ * @author Mickael Grivolat
+ */
+
+public final class CountServerLoad {
+
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final LongAdder numRequests = new LongAdder(), numRejected = new LongAdder(), numErrors = new LongAdder();
+	private final HttpRequest request;
+
+	private CountServerLoad(URI uri, byte[] body) {
+		request = HttpRequest.newBuilder(uri)
+				.header("Content-Type", "text/plain; charset=utf-8")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(body))
+				.build();
+	}
+
+	// Sends the request again and again until the deadline
+	private void run(long deadline) {
+		while (System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			try {
+				HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+				if (response.statusCode() == 200) {
+					latencies.record(System.nanoTime() - start);
+					numRequests.increment();
+				} else if (response.statusCode() == 503) {
+					// the queue of the server is full: it is given a moment before the next request
+					numRejected.increment();
+					Thread.sleep(1);
+				} else {
+					numErrors.increment();
+				}
+			} catch (IOException e) {
+				numErrors.increment();
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	// Returns the JSON array of the given strings
+	private static String jsonArray(String text, int count) {
+		String string = "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			sb.append(i > 0 ? "," : "").append(string);
+		}
+		return sb.append(']').toString();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String url = null;
+		int clients = 8;
+		int seconds = 10;
+		int size = 4 << 10;
+		int batch = 1;
+		int density = 20;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = threads * 64;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--url") && i + 1 < args.length) {
+				url = args[++i];
+			} else if (args[i].equals("--clients") && i + 1 < args.length) {
+				clients = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--seconds") && i + 1 < args.length) {
+				seconds = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--size") && i + 1 < args.length) {
+				size = Corpus.parseSize(args[++i]);
+			} else if (args[i].equals("--batch") && i + 1 < args.length) {
+				batch = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--density") && i + 1 < args.length) {
+				density = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--queue") && i + 1 < args.length) {
+				queue = Integer.parseInt(args[++i]);
+			} else {
+				System.err.println("Usage: CountServerLoad [--url http://localhost:8080] [--clients n] [--seconds n]"
+						+ " [--size 4KB] [--batch n] [--density n] [--threads n] [--queue n]");
+				System.exit(2);
+			}
+		}
+
+		CountServer server = null;
+		if (url == null) {
+			server = new CountServer(new InetSocketAddress("localhost", 0), threads, queue, CountingRules.ENGLISH);
+			server.start();
+			url = "http://localhost:" + server.getPort();
+		}
+		// one text per request to /count, or batch texts in the JSON array of a request to /batch
+		String text = Corpus.generate(size, density);
+		byte[] body = (batch > 1 ? jsonArray(text, batch) : text).getBytes(StandardCharsets.UTF_8);
+		CountServerLoad load = new CountServerLoad(URI.create(url + (batch > 1 ? "/batch" : "/count")), body);
+
+		// a first second warms up the server and opens the connections, then the statistics start over
+		for (int pass = 0; pass < 2; pass++) {
+			long deadline = System.nanoTime() + (pass == 0 ? 1 : seconds) * 1000000000L;
+			load.latencies.reset();
+			load.numRequests.reset();
+			load.numRejected.reset();
+			load.numErrors.reset();
+			List<Thread> threadList = new ArrayList<Thread>();
+			for (int i = 0; i < clients; i++) {
+				Thread thread = new Thread(() -> load.run(deadline), "Load Client " + i);
+				thread.start();
+				threadList.add(thread);
+			}
+			for (Thread thread : threadList) {
+				thread.join();
+			}
+		}
+
+		long requests = load.numRequests.sum();
+		double megabytes = requests * (double) body.length / (1024.0 * 1024.0);
+		System.out.printf("%d clients, %d requests of %d bytes (%d texts) in %d s: %.0f requests/s, %.0f texts/s, %.1f MB/s%n",
+				clients, requests, body.length, batch, seconds, requests / (double) seconds,
+				requests * (double) batch / seconds, megabytes / seconds);
+		System.out.printf("latency p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms; %d rejected, %d errors%n",
+				load.latencies.getPercentile(50) / 1000.0, load.latencies.getPercentile(90) / 1000.0,
+				load.latencies.getPercentile(99) / 1000.0, load.latencies.getMaxMicros() / 1000.0,
+				load.numRejected.sum(), load.numErrors.sum());
+		HttpResponse<String> stats = load.client.send(HttpRequest.newBuilder(URI.create(url + "/stats")).build(),
+				HttpResponse.BodyHandlers.ofString());
+		System.out.println("server " + stats.body());
+		if (server != null) {
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import document.CountingRules;
+import document.Document;
+import document.ParallelCounter;
+import document.PartialCount;
+import document.TextCounter;
+
+/**
+ * Counting benchmarks: the Document class and the counting engines against the
+ * regular expression implementation they replaced.
+ *
+ * @author Mickael Grivolat
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-modules=jdk.incubator.vector" })
+public class DocumentBenchmark {
+
+	@Param({ "1KB", "1MB", "100MB" })
+	public String size;
+
+	@Param({ "2", "20" })  // end of sentence punctuation sequences per 100 words
+	public int density;
+
+	private String text;
+	private ByteBuffer utf8;
+	private LegacyDocument legacy;
+	private List<String> words;
+
+	@Setup
+	public void setup() {
+		text = Corpus.generate(Corpus.parseSize(size), density);
+		utf8 = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+		legacy = new LegacyDocument(text);
+		words = legacy.getTokens("[a-zA-Z]+");
+	}
+
+	@Benchmark
+	public int document() {
+		return new Document(text).getNumSyllables();
+	}
+
+	@Benchmark
+	public int documentWords() {
+		// the syllables are not counted until they are asked for
+		return new Document(text).getNumWords();
+	}
+
+	@Benchmark
+	public int legacyDocument() {
+		return new LegacyDocument(text).getNumSyllables();
+	}
+
+	@Benchmark
+	public long textCounter() {
+		TextCounter counter = new TextCounter();
+		counter.count(text);
+		counter.finish();
+		return counter.getNumSyllables();
+	}
+
+	@Benchmark
+	public long textCounterFrench() {
+		TextCounter counter = new TextCounter(CountingRules.FRENCH);
+		counter.count(text);
+		counter.finish();
+		return counter.getNumSyllables();
+	}
+
+	@Benchmark
+	public long textCounterUtf8() {
+		TextCounter counter = new TextCounter();
+		counter.countUtf8(utf8.duplicate());
+		counter.finish();
+		return counter.getNumSyllables();
+	}
+
+	@Benchmark
+	public long textCounterForThread() {
+		// the counter of the thread is reset for each text: with -prof gc, nothing is allocated per text
+		TextCounter counter = TextCounter.forThread(CountingRules.ENGLISH);
+		counter.count(text);
+		counter.finish();
+		return counter.getNumSyllables();
+	}
+
+	@Benchmark
+	public long parallelCounter() {
+		PartialCount count = ParallelCounter.count(text);
+		return count.getNumSyllables();
+	}
+
+	@Benchmark
+	public int legacyTokenization() {
+		return legacy.getTokens("[!?.]+|[a-zA-Z]+").size();
+	}
+
+	@Benchmark
+	public void legacyCountSyllables(Blackhole bh) {
+		for (String word : words) {
+			bh.consume(LegacyDocument.countSyllables(word));
+		}
+	}
+
+	@Benchmark
+	public void countSyllables(Blackhole bh) {
+		for (String word : words) {
+			bh.consume(TextCounter.countSyllables(word));
+		}
+	}
+}
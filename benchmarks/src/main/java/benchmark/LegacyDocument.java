@@ -0,0 +1,104 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression implementation of Document that the counting engines replaced,
+ * kept as the baseline of the benchmarks. It compiles the pattern for every document,
+ * creates a String for every token and counts the syllables of each word separately.
+ *
+ * @author Mickael Grivolat
+ */
+
+public class LegacyDocument {
+
+	private String text;
+	private int numWords;
+	private int numSentences;
+	private int numSyllables;
+	private int numCharacters;
+
+	public LegacyDocument(String text) {
+		this.text = text;
+		processText();
+	}
+
+	public int getNumSentences() {
+		return numSentences;
+	}
+
+	public int getNumWords() {
+		return numWords;
+	}
+
+	public int getNumSyllables() {
+		return numSyllables;
+	}
+
+	public int getNumCharacters() {
+		return numCharacters;
+	}
+
+	/** Returns the tokens that match the regex pattern from the document text string. */
+	public List<String> getTokens(String pattern) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		Pattern tokSplitter = Pattern.compile(pattern);
+		Matcher m = tokSplitter.matcher(text);
+
+		while (m.find()) {
+			tokens.add(m.group());
+		}
+
+		return tokens;
+	}
+
+	private boolean isWord(String tok) {
+		return !(tok.indexOf("!") >= 0 || tok.indexOf(".") >= 0 || tok.indexOf("?") >= 0);
+	}
+
+	private void processText() {
+		List<String> tokens = getTokens("[!?.]+|[a-zA-Z]+");
+
+		int numWord = 0, numSyllab = 0, numSent = 0;
+		for (String str : tokens) {
+			if (isWord(str)) {
+				numSyllab += countSyllables(str);
+				numWord++;
+				if (str.equals(tokens.get(tokens.size() - 1))) {
+					numSent++;
+				}
+			} else {
+				numSent++;
+			}
+		}
+		numWords = numWord;
+		numSyllables = numSyllab;
+		numSentences = numSent;
+		numCharacters = text.length();
+	}
+
+	/** Returns the number of syllables of a word with the vowel sequence rules of Document. */
+	public static int countSyllables(String word) {
+		int numSyllables = 0;
+		boolean newSyllable = true;
+		String vowels = "aeiouy";
+		char[] cArray = word.toCharArray();
+		for (int i = 0; i < cArray.length; i++) {
+			if (i == cArray.length - 1 && Character.toLowerCase(cArray[i]) == 'e'
+					&& newSyllable && numSyllables > 0) {
+				numSyllables--;
+			}
+			if (newSyllable && vowels.indexOf(Character.toLowerCase(cArray[i])) >= 0) {
+				newSyllable = false;
+				numSyllables++;
+			} else if (vowels.indexOf(Character.toLowerCase(cArray[i])) < 0) {
+				newSyllable = true;
+			}
+		}
+
+		return numSyllables;
+	}
+}
@@ -0,0 +1,95 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import document.Document;
+import document.ParallelCounter;
+import document.ReadWriteFile;
+
+/**
+ * File benchmarks: reading a file into a String, counting it without storing its
+ * content, and writing a text to a file with ReadWriteFile.
+ *
+ * @author Mickael Grivolat
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReadWriteFileBenchmark {
+
+	@Param({ "1KB", "1MB", "100MB" })
+	public String size;
+
+	@Param({ "2", "20" })  // end of sentence punctuation sequences per 100 words
+	public int density;
+
+	private String text;
+	private File source, target;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		text = Corpus.generate(Corpus.parseSize(size), density);
+		source = File.createTempFile("benchmark", ".txt");
+		target = File.createTempFile("benchmark", ".txt");
+		Files.write(source.toPath(), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		source.delete();
+		target.delete();
+	}
+
+	@Benchmark
+	public int read() throws IOException {
+		return new ReadWriteFile(source).getContent().length();
+	}
+
+	@Benchmark
+	public int readAndCount() throws IOException {
+		return new Document(new ReadWriteFile(source).getContent()).getNumSyllables();
+	}
+
+	@Benchmark
+	public long mappedCount() throws IOException {
+		return ReadWriteFile.count(source).getNumSyllables();
+	}
+
+	@Benchmark
+	public long parallelCount() throws IOException {
+		return ParallelCounter.count(source).getNumSyllables();
+	}
+
+	/* Replaces an existing file, through a temporary file, as the GUI Save button does */
+	@Benchmark
+	public void write() throws IOException {
+		ReadWriteFile file = new ReadWriteFile(target, true);
+		file.write(text, false);
+	}
+
+	@Benchmark
+	public void writeAsync() throws Exception {
+		ReadWriteFile file = new ReadWriteFile(target, true);
+		file.writeAsync(text, false, error -> { }).get();
+	}
+}